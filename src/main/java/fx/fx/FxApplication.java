@@ -1,17 +1,21 @@
 package fx.fx;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 /**
  * FxApplication.java
  *
  * The application's main class. Uses SpringApplication.run to launch the application.
  * Can be ran by typing " ./mvnw spring-boot:run  " in the console (make sure you're in the fx directory).
+ * For a faster startup, run with the "fast" profile, optionally using the class data sharing archive
+ * built by the "appcds" maven profile (see pom.xml).
  * @author Yosif Gorelyov
  * @date 20/04/2021
  */
 
 @SpringBootApplication
+@EnableScheduling
 public class FxApplication {
 	public static void main(String[] args) {
 		SpringApplication.run(FxApplication.class, args);
@@ -2,25 +2,14 @@ package fx.fx.classes;
 
 import fx.fx.exceptions.*;
 
-import java.io.IOException;
-
-import java.net.URL;
-
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-
-import org.springframework.web.util.UriComponents;
-import org.springframework.web.util.UriComponentsBuilder;
-
-import net.minidev.json.JSONObject;
-
 /**
  * CurrencyPair.java
  *
  * Represents  the combination of two currencies, e.g. USDEUR.
- * Contains methods to get the current exchange rate of two currencies and to perform exchanges.
- * @see CurrencyPair#getExchangeRate()
- * @see CurrencyPair#exchange(int)
+ * Contains a method to perform exchanges at a known exchange rate. The rates themselves are read through the
+ * ExchangeRateService, which caches them and budgets the calls to the Currency Layer API.
+ * @see CurrencyPair#exchange(long, long)
+ * @see fx.fx.services.ExchangeRateService
  * 
  * @author Yosif Gorelyov
  * @date 20/04/2021
@@ -110,70 +99,20 @@ public class CurrencyPair {
     }
 
     /**
-     * Reads the Currency Layer API to get the current exchange rate for this CurrencyPair object.
-     * @return the exchange rate
-     * @throws CurrencyPairSyntaxException
-     */
-    public double getExchangeRate() throws CurrencyPairSyntaxException {
-
-        //must be initialized.
-        double exchangeRate = 0.0;
-        try {
-
-            //Build a UriComponent using the Currency Layer API Url.
-            //.buildAndExpand passes the target and source currencies in place of {target} and {source}.
-            String apiUrl = "http://apilayer.net/api/live?access_key=f5bff8b046fcaa733861ec0ba01119b3&currencies={target}&source={source}&format=1";
-            UriComponents uri = UriComponentsBuilder.fromHttpUrl(apiUrl)
-                                                    .buildAndExpand(this.targetCurrency, this.sourceCurrency);
-            URL exchangeRateUrl = uri.toUri().toURL();
-
-            //A Jackson JsonNode stores all of the JSON from the url. The exchange rate value is nested in "quotes",
-            //and the key is the currencyPair.
-            JsonNode productNode = new ObjectMapper().readTree(exchangeRateUrl);
-
-            //If an invalid call is made, it means an invalid currency pair has been provided. success will be false.
-            if (productNode.get("success").asBoolean() == false) {
-                throw new CurrencyPairSyntaxException(); 
-            }
-
-            exchangeRate = productNode.get("quotes").get(this.currencyPair).asDouble();
-
-        } catch (IOException e) {
-            // Jackson could not read the input properly.
-            e.printStackTrace();
-        }
-
-        return exchangeRate;
-    }
-
-    /**
-     * Returns the exchange rate of the CurrencyPair object as JSON. The key is "rate".
-     * @see CurrencyPair#getExchangeRate()
-     * @return the exchange rate.
-     * @throws CurrencyPairSyntaxException
-     */
-    public JSONObject getExchangeRateAsJson() throws CurrencyPairSyntaxException {
-        double exchangeRate = getExchangeRate();
-        JSONObject rate=new JSONObject();
-        rate.put("rate:",exchangeRate);     
-        return rate;
-    }
-    
-    /**
-     * Using the object's target and source currencies, performs an exchange of a given amount.
-     * @param amount - the amount of money to be exchanged from the source currency.
-     * @return - the amount of money in the target currency.
-     * @throws CurrencyPairSyntaxException
+     * Performs an exchange in fixed-point arithmetic at an already known exchange rate, e.g. a cached one.
+     * @see Money#exchange(long, int, long, int)
+     * @param amount - the amount of money to be exchanged, in minor units of the source currency.
+     * @param exchangeRate - the exchange rate of this CurrencyPair object, in units of 10^-Money.RATE_SCALE.
+     * @return - the amount of money in minor units of the target currency, rounded half-even.
      * @throws NegativeAmountException
      */
-    public double exchange(Double amount) throws CurrencyPairSyntaxException, NegativeAmountException {
-        if (amount < 0.0) {
+    public long exchange(long amount, long exchangeRate) throws NegativeAmountException {
+        if (amount < 0) {
             throw new NegativeAmountException();
         }
-        double exchangeRate = getExchangeRate();
 
         //To perform a currency exchange, the user's money is multiplied by the current exchange rate.
-        double exchangedAmount = amount * exchangeRate;
-        return exchangedAmount;
-    }    
+        return Money.exchange(amount, Money.scaleOf(this.sourceCurrency),
+                              exchangeRate, Money.scaleOf(this.targetCurrency));
+    }
 }
\ No newline at end of file
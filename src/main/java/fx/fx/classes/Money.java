@@ -0,0 +1,199 @@
+package fx.fx.classes;
+
+import java.util.Currency;
+
+/**
+ * Money.java
+ *
+ * Fixed-point arithmetic on amounts of money: a long number of minor units (e.g. cents) of a currency.
+ * The scale of each currency is its number of minor unit digits, e.g. 2 for EUR, 0 for JPY, 3 for KWD.
+ * Exchange rates are fixed-point as well, in units of 10^-RATE_SCALE.
+ *
+ * All methods work on plain longs, so that the conversion path neither boxes nor allocates.
+ * All rounding is half-even (banker's rounding), and no BigDecimal is used.
+ */
+public final class Money {
+
+    /**
+     * Number of decimal digits kept of an exchange rate.
+     */
+    public static final int RATE_SCALE = 10;
+
+    private static final int DEFAULT_SCALE = 2;
+
+    private static final long[] POWERS_OF_TEN = {
+        1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L,
+        10000000000L, 100000000000L, 1000000000000L, 10000000000000L, 100000000000000L,
+        1000000000000000L, 10000000000000000L, 100000000000000000L, 1000000000000000000L
+    };
+
+    private Money() {
+    }
+
+    /**
+     * Returns the number of minor unit digits of a currency, as defined by ISO 4217.
+     * Unknown currencies and currencies without minor units (e.g. XAU) default to 2.
+     * @param currency - the currency as a 3-letter string, e.g. EUR. Lowercase is supported.
+     * @return the scale of the currency.
+     */
+    public static int scaleOf(String currency) {
+        //Currency caches its instances, and only valid codes, so arbitrary client input is not retained.
+        try {
+            int digits = Currency.getInstance(currency.toUpperCase()).getDefaultFractionDigits();
+            if (digits >= 0) {
+                return digits;
+            }
+        } catch (IllegalArgumentException e) {
+            //not an ISO 4217 code, keep the default.
+        }
+        return DEFAULT_SCALE;
+    }
+
+    /**
+     * Parses a decimal string, e.g. "-10.125", into units of 10^-scale. Extra digits are rounded half-even.
+     * @param amount - the decimal string. Exponents are not supported.
+     * @param scale - the number of decimal digits to keep.
+     * @return the amount in units of 10^-scale.
+     * @throws NumberFormatException if the string is not a decimal number or is out of range.
+     */
+    public static long parse(String amount, int scale) {
+        int length = amount.length();
+        int i = 0;
+        boolean negative = false;
+        if (length > 0 && (amount.charAt(0) == '-' || amount.charAt(0) == '+')) {
+            negative = amount.charAt(0) == '-';
+            i++;
+        }
+
+        long units = 0;
+        int fractionDigits = -1;
+        boolean anyDigit = false;
+        int roundingDigit = -1;
+        boolean nonZeroAfterRoundingDigit = false;
+        try {
+            for (; i < length; i++) {
+                char c = amount.charAt(i);
+                if (c == '.' && fractionDigits < 0) {
+                    fractionDigits = 0;
+                    continue;
+                }
+                if (c < '0' || c > '9') {
+                    throw new NumberFormatException("Not a decimal number: " + amount);
+                }
+                anyDigit = true;
+                if (fractionDigits < scale) {
+                    units = Math.addExact(Math.multiplyExact(units, 10L), c - '0');
+                    if (fractionDigits >= 0) {
+                        fractionDigits++;
+                    }
+                }
+                else if (roundingDigit < 0) {
+                    roundingDigit = c - '0';
+                }
+                else if (c != '0') {
+                    nonZeroAfterRoundingDigit = true;
+                }
+            }
+            if (!anyDigit) {
+                throw new NumberFormatException("Not a decimal number: " + amount);
+            }
+            units = Math.multiplyExact(units, POWERS_OF_TEN[scale - Math.max(fractionDigits, 0)]);
+            if (roundingDigit > 5 || (roundingDigit == 5 && (nonZeroAfterRoundingDigit || (units & 1) == 1))) {
+                units = Math.addExact(units, 1L);
+            }
+        } catch (ArithmeticException e) {
+            throw new NumberFormatException("Out of range: " + amount);
+        }
+        return negative ? -units : units;
+    }
+
+    /**
+     * Converts a double to units of 10^-scale, rounding half-even. Used off the conversion path, e.g. for API rates.
+     * @param value - the value to convert.
+     * @param scale - the number of decimal digits to keep.
+     * @return the value in units of 10^-scale.
+     */
+    public static long fromDouble(double value, int scale) {
+        return (long) Math.rint(value * POWERS_OF_TEN[scale]);
+    }
+
+    /**
+     * @return minorUnits as a double, for display only.
+     */
+    public static double toDouble(long minorUnits, int scale) {
+        return (double) minorUnits / POWERS_OF_TEN[scale];
+    }
+
+    /**
+     * Exchanges an amount at a fixed-point rate: amount * rate, rescaled to the target currency and rounded half-even.
+     * The product is computed in 128 bits, so large amounts at large rates don't overflow.
+     * @param amount - the amount in minor units of the source currency. Must not be negative.
+     * @param sourceScale - the scale of the source currency.
+     * @param rate - the exchange rate in units of 10^-RATE_SCALE. Must not be negative.
+     * @param targetScale - the scale of the target currency.
+     * @return the amount in minor units of the target currency.
+     * @throws ArithmeticException if the result does not fit in a long.
+     */
+    public static long exchange(long amount, int sourceScale, long rate, int targetScale) {
+        int exponent = sourceScale + RATE_SCALE - targetScale;
+        if (exponent <= 0) {
+            return Math.multiplyExact(Math.multiplyExact(amount, rate), POWERS_OF_TEN[-exponent]);
+        }
+        long divisor = POWERS_OF_TEN[exponent];
+
+        //the product of two longs with at least 65 leading zeros between them fits in 63 bits.
+        if (Long.numberOfLeadingZeros(amount) + Long.numberOfLeadingZeros(rate) >= 65) {
+            long product = amount * rate;
+            return roundHalfEven(product / divisor, product % divisor, divisor);
+        }
+        return divideWide(multiplyHigh(amount, rate), amount * rate, divisor);
+    }
+
+    private static long roundHalfEven(long quotient, long remainder, long divisor) {
+        long twice = remainder << 1;
+        if (twice > divisor || (twice == divisor && (quotient & 1) == 1)) {
+            return quotient + 1;
+        }
+        return quotient;
+    }
+
+    /**
+     * The high 64 bits of the 128-bit product of two non-negative longs.
+     */
+    private static long multiplyHigh(long x, long y) {
+        long xLow = x & 0xFFFFFFFFL;
+        long xHigh = x >>> 32;
+        long yLow = y & 0xFFFFFFFFL;
+        long yHigh = y >>> 32;
+
+        long lowLow = xLow * yLow;
+        long highLow = xHigh * yLow;
+        long cross = (lowLow >>> 32) + (highLow & 0xFFFFFFFFL) + xLow * yHigh;
+        return xHigh * yHigh + (highLow >>> 32) + (cross >>> 32);
+    }
+
+    /**
+     * Divides the unsigned 128-bit number high:low by a divisor below 2^47, rounding half-even.
+     * Schoolbook long division in 16-bit digits, so that no intermediate value exceeds 63 bits.
+     */
+    private static long divideWide(long high, long low, long divisor) {
+        long remainder = 0;
+        long quotientHigh = 0;
+        long quotient = 0;
+        for (int shift = 112; shift >= 0; shift -= 16) {
+            long digit = (shift >= 64 ? high >>> (shift - 64) : low >>> shift) & 0xFFFFL;
+            long current = (remainder << 16) | digit;
+            remainder = current % divisor;
+            quotientHigh = (quotientHigh << 16) | (quotient >>> 48);
+            quotient = (quotient << 16) | (current / divisor);
+        }
+        if (quotientHigh != 0 || quotient < 0) {
+            throw new ArithmeticException("long overflow");
+        }
+        long rounded = roundHalfEven(quotient, remainder, divisor);
+        if (rounded < 0) {
+            throw new ArithmeticException("long overflow");
+        }
+        return rounded;
+    }
+}
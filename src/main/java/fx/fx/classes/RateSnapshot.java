@@ -0,0 +1,79 @@
+package fx.fx.classes;
+
+import net.minidev.json.JSONObject;
+
+/**
+ * RateSnapshot.java
+ *
+ * An immutable exchange rate for a currency pair, together with the time it was read from the Currency Layer API.
+ * Snapshots are cached by the ExchangeRateService and persisted between restarts.
+ * The fetch time is also the version of the snapshot, which /exchangerate sends as its ETag and Last-Modified.
+ * @see fx.fx.services.ExchangeRateService
+ */
+public class RateSnapshot {
+
+    private final String currencyPair;
+    private final double rate;
+    private final long rateUnits;
+    private final long fetchedAt;
+    private final String eTag;
+
+    /**
+     * Constructor for a RateSnapshot object.
+     * @param currencyPair - the 6-letter currency pair, e.g. USDEUR.
+     * @param rate - the exchange rate of the currency pair.
+     * @param fetchedAt - the time the rate was read, in milliseconds since the epoch.
+     */
+    public RateSnapshot(String currencyPair, double rate, long fetchedAt) {
+        this.currencyPair = currencyPair;
+        this.rate = rate;
+        this.rateUnits = Money.fromDouble(rate, Money.RATE_SCALE);
+        this.fetchedAt = fetchedAt;
+        this.eTag = "\"" + currencyPair + "-" + Long.toHexString(fetchedAt) + "\"";
+    }
+
+    /**
+     * @return the 6-letter currency pair, e.g. USDEUR.
+     */
+    public String getCurrencyPair() {
+        return currencyPair;
+    }
+
+    /**
+     * @return the exchange rate of the currency pair.
+     */
+    public double getRate() {
+        return rate;
+    }
+
+    /**
+     * @return the exchange rate as a fixed-point number, in units of 10^-Money.RATE_SCALE.
+     */
+    public long getRateUnits() {
+        return rateUnits;
+    }
+
+    /**
+     * @return the time the rate was read, in milliseconds since the epoch.
+     */
+    public long getFetchedAt() {
+        return fetchedAt;
+    }
+
+    /**
+     * @return the quoted entity tag of this version of the rate, e.g. "USDEUR-1790f0c2a38".
+     */
+    public String getETag() {
+        return eTag;
+    }
+
+    /**
+     * Returns the exchange rate as JSON. The key is "rate".
+     * @return the exchange rate.
+     */
+    public JSONObject toJson() {
+        JSONObject rate = new JSONObject();
+        rate.put("rate:", this.rate);
+        return rate;
+    }
+}
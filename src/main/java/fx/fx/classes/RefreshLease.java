@@ -0,0 +1,85 @@
+package fx.fx.classes;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.PostLoad;
+import javax.persistence.PostPersist;
+import javax.persistence.Transient;
+
+import org.springframework.data.domain.Persistable;
+
+/**
+ * RefreshLease.java
+ *
+ * A lease row in the shared datasource. In clustered mode, the node holding the lease is the only one
+ * that refreshes the shared rates from the Currency Layer API.
+ * A new lease is always inserted, never merged, so that two nodes creating the row at once can't both succeed.
+ * @see fx.fx.services.ClusterRateSync
+ */
+@Entity
+public class RefreshLease implements Persistable<String> {
+
+    @Id
+    private String name;
+    private String owner;
+    private long expiresAt;
+
+    @Transient
+    private boolean isNew = true;
+
+    /**
+     * Empty constructor needed for the repository.
+     */
+    RefreshLease() {
+
+    }
+
+    /**
+     * Constructor for a RefreshLease object.
+     * @param name - the name of the lease.
+     * @param owner - the id of the node holding the lease.
+     * @param expiresAt - the time the lease expires unless renewed, in milliseconds since the epoch.
+     */
+    public RefreshLease(String name, String owner, long expiresAt) {
+        this.name = name;
+        this.owner = owner;
+        this.expiresAt = expiresAt;
+    }
+
+    /**
+     * @return the name of the lease.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the id of the node holding the lease.
+     */
+    public String getOwner() {
+        return owner;
+    }
+
+    /**
+     * @return the time the lease expires unless renewed, in milliseconds since the epoch.
+     */
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+
+    @Override
+    public String getId() {
+        return name;
+    }
+
+    @Override
+    public boolean isNew() {
+        return isNew;
+    }
+
+    @PostLoad
+    @PostPersist
+    void markNotNew() {
+        this.isNew = false;
+    }
+}
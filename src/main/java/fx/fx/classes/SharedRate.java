@@ -0,0 +1,105 @@
+package fx.fx.classes;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.PostLoad;
+import javax.persistence.PostPersist;
+import javax.persistence.Transient;
+
+import org.springframework.data.domain.Persistable;
+
+/**
+ * SharedRate.java
+ *
+ * An exchange rate shared between the nodes of a cluster through the datasource.
+ * fetchedAt doubles as the version of the rate: the nodes poll for rows fetched after the last one they saw.
+ * requestedAt is the last time a node needed the rate; only rates requested recently are kept fresh.
+ * demand is the number of requests for the rate on all nodes, halved every refresh interval. The leader gives
+ * priority to the refreshes of the most demanded rates.
+ * A new rate is always inserted, never merged, and later only updated if it is newer, so an older rate can never
+ * overwrite a newer one.
+ * @see fx.fx.services.ClusterRateSync
+ */
+@Entity
+public class SharedRate implements Persistable<String> {
+
+    @Id
+    private String currencyPair;
+    private double rate;
+    private long fetchedAt;
+    private long requestedAt;
+    private double demand;
+
+    @Transient
+    private boolean isNew = true;
+
+    /**
+     * Empty constructor needed for the repository.
+     */
+    SharedRate() {
+
+    }
+
+    /**
+     * Constructor for a SharedRate object.
+     * @param snapshot - the rate to share.
+     * @param requestedAt - the last time a node needed the rate, in milliseconds since the epoch.
+     */
+    public SharedRate(RateSnapshot snapshot, long requestedAt) {
+        this.currencyPair = snapshot.getCurrencyPair();
+        this.rate = snapshot.getRate();
+        this.fetchedAt = snapshot.getFetchedAt();
+        this.requestedAt = requestedAt;
+    }
+
+    /**
+     * @return the 6-letter currency pair, e.g. USDEUR.
+     */
+    public String getCurrencyPair() {
+        return currencyPair;
+    }
+
+    /**
+     * @return the time the rate was read from the API, in milliseconds since the epoch.
+     */
+    public long getFetchedAt() {
+        return fetchedAt;
+    }
+
+    /**
+     * @return the last time a node needed the rate, in milliseconds since the epoch.
+     */
+    public long getRequestedAt() {
+        return requestedAt;
+    }
+
+    /**
+     * @return the number of requests for the rate on all nodes, halved every refresh interval.
+     */
+    public double getDemand() {
+        return demand;
+    }
+
+    /**
+     * @return the shared rate as a RateSnapshot.
+     */
+    public RateSnapshot toSnapshot() {
+        return new RateSnapshot(currencyPair, rate, fetchedAt);
+    }
+
+    @Override
+    public String getId() {
+        return currencyPair;
+    }
+
+    @Override
+    public boolean isNew() {
+        return isNew;
+    }
+
+    @PostLoad
+    @PostPersist
+    void markNotNew() {
+        this.isNew = false;
+    }
+}
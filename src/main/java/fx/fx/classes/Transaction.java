@@ -6,6 +6,8 @@ import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
 
 import net.minidev.json.JSONObject;
 
@@ -14,10 +16,16 @@ import net.minidev.json.JSONObject;
  *
  * Represents a Transaction performed by the ConveresionController.
  * The variables of this object are saved in the repository.
+ * Amounts are stored as fixed-point minor units of their currency, e.g. cents.
+ * In journal mode, a transaction is first written to the TransactionJournal and identified by its journal sequence,
+ * and gets its id once the journal is loaded into the repository. Journal sequences are only unique per journal node,
+ * as every node of a cluster numbers its own journal.
+ * @see Money
  * @author Yosif Gorelyov
  * @date 20/04/2021
  */
 @Entity
+@Table(uniqueConstraints = @UniqueConstraint(columnNames = {"journalNode", "journalSequence"}))
 public class Transaction {
 
     //id is auto generated upon every created transaction,
@@ -27,9 +35,11 @@ public class Transaction {
     private long id;
     private String sourceCurrency;
     private String targetCurrency;
-    private double amount;
-    private double exchangedAmount;
+    private long amountMinor;
+    private long exchangedAmountMinor;
     private String date;
+    private String journalNode;
+    private Long journalSequence;
 
     /**
      * Empty constructor needed for the repository.
@@ -42,15 +52,16 @@ public class Transaction {
      * Constructor for a Transaction object.
      * @param sourceCurrency the source currency as a 3-letter string, e.g. EUR.
      * @param targetCurrency the target  currency as a 3-letter string, e.g. EUR.
-     * @param amount the amount of money in the source currency.
-     * @param exchangedAmount the exchanged amount of money in the target currency
+     * @param amountMinor the amount of money in minor units of the source currency.
+     * @param exchangedAmountMinor the exchanged amount of money in minor units of the target currency.
      * @param date the date when the transaction was performed. 
      */
-    public Transaction(String sourceCurrency, String targetCurrency, double amount, double exchangedAmount, String date) {
+    public Transaction(String sourceCurrency, String targetCurrency, long amountMinor, long exchangedAmountMinor,
+                       String date) {
         this.sourceCurrency = sourceCurrency;
         this.targetCurrency = targetCurrency;
-        this.amount = amount;
-        this.exchangedAmount = exchangedAmount;
+        this.amountMinor = amountMinor;
+        this.exchangedAmountMinor = exchangedAmountMinor;
         this.date = date;
     }
 
@@ -79,14 +90,28 @@ public class Transaction {
      * @return the amount in the source currency.
      */
     public double getAmount(){
-        return this.amount;
+        return Money.toDouble(this.amountMinor, Money.scaleOf(this.sourceCurrency));
+    }
+
+    /**
+     * @return the amount in minor units of the source currency.
+     */
+    public long getAmountMinor(){
+        return this.amountMinor;
     }
 
     /**
      * @return the amount of money after performing an exchange.
      */
     public double getExchangedAmount(){
-        return this.exchangedAmount;
+        return Money.toDouble(this.exchangedAmountMinor, Money.scaleOf(this.targetCurrency));
+    }
+
+    /**
+     * @return the amount of money after performing an exchange, in minor units of the target currency.
+     */
+    public long getExchangedAmountMinor(){
+        return this.exchangedAmountMinor;
     }
 
     /**
@@ -96,6 +121,20 @@ public class Transaction {
         return this.date;
     }
 
+    /**
+     * @return the id of the TransactionJournal the transaction was written to, or null if it was saved directly.
+     */
+    public String getJournalNode(){
+        return this.journalNode;
+    }
+
+    /**
+     * @return the sequence number of the transaction in the TransactionJournal, or null if it was saved directly.
+     */
+    public Long getJournalSequence(){
+        return this.journalSequence;
+    }
+
     /**
      * @param sourceCurrency - must be a 3-letter valid currency code, e.g. EUR.
      */
@@ -111,17 +150,17 @@ public class Transaction {
     }
 
     /**
-     * @param amount - the amount of money in the source currency.
+     * @param amountMinor - the amount of money in minor units of the source currency.
      */
-    public void setAmount(double amount){
-        this.amount = amount;
+    public void setAmountMinor(long amountMinor){
+        this.amountMinor = amountMinor;
     }
 
     /**
-     * @param exchangedAmount - the amount of money after performing an exchange
+     * @param exchangedAmountMinor - the amount of money after performing an exchange, in minor units of the target currency.
      */
-    public void setExchangedAmount(double exchangedAmount){
-        this.exchangedAmount = exchangedAmount;
+    public void setExchangedAmountMinor(long exchangedAmountMinor){
+        this.exchangedAmountMinor = exchangedAmountMinor;
     }
 
     public void setDate(LocalDate date){
@@ -135,14 +174,35 @@ public class Transaction {
         this.date = date;
     }
 
+    /**
+     * @param journalNode - the id of the TransactionJournal the transaction was written to.
+     */
+    public void setJournalNode(String journalNode){
+        this.journalNode = journalNode;
+    }
+
+    /**
+     * @param journalSequence - the sequence number of the transaction in the TransactionJournal.
+     */
+    public void setJournalSequence(Long journalSequence){
+        this.journalSequence = journalSequence;
+    }
+
     /**
      * Converts the id and exchanged amount to JSON. The keys are "id" and "exchangedAmount" respectively.
+     * A journaled transaction that has no id yet is identified by the keys "journalNode" and "journalSequence" instead.
      * @return the id and exchanged amount as JSON.
      */
     public JSONObject toJson(){
         JSONObject idAndExchangedAmount = new JSONObject();
-        idAndExchangedAmount.put("id:",this.id);  
-        idAndExchangedAmount.put("exchangedAmount:", this.exchangedAmount);  
+        if (this.id == 0 && this.journalSequence != null) {
+            idAndExchangedAmount.put("journalNode:", this.journalNode);
+            idAndExchangedAmount.put("journalSequence:", this.journalSequence);
+        }
+        else {
+            idAndExchangedAmount.put("id:",this.id);
+        }
+        idAndExchangedAmount.put("exchangedAmount:", getExchangedAmount());  
         return idAndExchangedAmount;
     }
 }
\ No newline at end of file
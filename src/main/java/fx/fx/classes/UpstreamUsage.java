@@ -0,0 +1,75 @@
+package fx.fx.classes;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.PostLoad;
+import javax.persistence.PostPersist;
+import javax.persistence.Transient;
+
+import org.springframework.data.domain.Persistable;
+
+/**
+ * UpstreamUsage.java
+ *
+ * The number of Currency Layer API requests made by all nodes of a cluster in a billing window, kept in the
+ * shared datasource so that the nodes share a single quota.
+ * A new row is always inserted, never merged, so that two nodes creating it at once can't reset each other's count.
+ * @see fx.fx.services.UpstreamBudget
+ */
+@Entity
+public class UpstreamUsage implements Persistable<Long> {
+
+    @Id
+    private Long windowStart;
+    private long used;
+
+    @Transient
+    private boolean isNew = true;
+
+    /**
+     * Empty constructor needed for the repository.
+     */
+    UpstreamUsage() {
+
+    }
+
+    /**
+     * Constructor for an UpstreamUsage object.
+     * @param windowStart - the start of the billing window, in milliseconds since the epoch.
+     * @param used - the number of requests made in the billing window.
+     */
+    public UpstreamUsage(long windowStart, long used) {
+        this.windowStart = windowStart;
+        this.used = used;
+    }
+
+    /**
+     * @return the start of the billing window, in milliseconds since the epoch.
+     */
+    public long getWindowStart() {
+        return windowStart;
+    }
+
+    /**
+     * @return the number of requests made in the billing window.
+     */
+    public long getUsed() {
+        return used;
+    }
+
+    @Override
+    public Long getId() {
+        return windowStart;
+    }
+
+    @Override
+    public boolean isNew() {
+        return isNew;
+    }
+
+    @PostLoad
+    @PostPersist
+    void markNotNew() {
+        this.isNew = false;
+    }
+}
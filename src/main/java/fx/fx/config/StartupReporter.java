@@ -0,0 +1,60 @@
+package fx.fx.config;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+
+/**
+ * StartupReporter.java
+ *
+ * Logs how long after the JVM started the application became ready and served its first request.
+ * With fx.startup.exit-on-ready=true the application exits as soon as it is ready. The "appcds" maven profile
+ * uses this for its training run, which records the classes loaded during startup into a class data sharing archive.
+ */
+@Component
+@Lazy(false)
+public class StartupReporter implements ApplicationListener<ApplicationReadyEvent>, Filter {
+
+    private static final Logger logger = LoggerFactory.getLogger(StartupReporter.class);
+
+    private final AtomicBoolean firstRequestServed = new AtomicBoolean(false);
+
+    @Value("${fx.startup.exit-on-ready:false}")
+    private boolean exitOnReady;
+
+    @Override
+    public void onApplicationEvent(ApplicationReadyEvent event) {
+        logger.info("Ready to serve requests {} ms after JVM start", uptime());
+        if (exitOnReady) {
+            System.exit(SpringApplication.exit(event.getApplicationContext()));
+        }
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException,
+                                                                                                   ServletException {
+        chain.doFilter(request, response);
+        if (!firstRequestServed.get() && firstRequestServed.compareAndSet(false, true)) {
+            logger.info("First request served {} ms after JVM start", uptime());
+        }
+    }
+
+    private static long uptime() {
+        return ManagementFactory.getRuntimeMXBean().getUptime();
+    }
+}
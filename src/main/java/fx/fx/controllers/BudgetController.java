@@ -0,0 +1,44 @@
+package fx.fx.controllers;
+import fx.fx.services.*;
+
+import java.time.Instant;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import net.minidev.json.JSONObject;
+
+/**
+ * BudgetController.java
+ *
+ * Controller responsible for reporting the Currency Layer API request budget.
+ * Currently has a single get mapping at /budget.
+ * @see UpstreamBudget
+ */
+
+@RestController
+public class BudgetController {
+
+    @Autowired
+    private UpstreamBudget upstreamBudget;
+
+    /**
+     * GET /budget
+     * @return the quota, the remaining requests and whether only high priority requests are allowed,
+     * with keys "quota", "remaining" and "tight". "windowEnd" is when the quota resets and "projectedExhaustion"
+     * is when it runs out at the current consumption rate, or null if nothing has been used yet.
+     */
+    @GetMapping("/budget")
+    public JSONObject getBudget() {
+        JSONObject budget = new JSONObject();
+        long projectedExhaustion = upstreamBudget.getProjectedExhaustion();
+        budget.put("quota:", upstreamBudget.getQuota());
+        budget.put("remaining:", upstreamBudget.getRemaining());
+        budget.put("tight:", upstreamBudget.isTight());
+        budget.put("windowEnd:", Instant.ofEpochMilli(upstreamBudget.getWindowEnd()).toString());
+        budget.put("projectedExhaustion:", projectedExhaustion < 0 ? null
+                                                                   : Instant.ofEpochMilli(projectedExhaustion).toString());
+        return budget;
+    }
+}
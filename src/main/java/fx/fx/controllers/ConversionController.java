@@ -2,6 +2,7 @@ package fx.fx.controllers;
 import fx.fx.classes.*;
 import fx.fx.repository.*;
 import fx.fx.exceptions.*;
+import fx.fx.services.*;
 
 import java.time.LocalDate;
 
@@ -17,6 +18,7 @@ import net.minidev.json.JSONObject;
  *
  * Controller responsible for converting money in different currencies.
  * Currently has a single get mapping at /convert.
+ * In journal mode, transactions are written to the TransactionJournal instead of being saved to the repository directly.
  * @author Yosif Gorelyov
  * @date 20/04/2021
  */
@@ -26,36 +28,67 @@ public class ConversionController {
 
     @Autowired
     private TransactionRepository transactionRepository;
+
+    @Autowired
+    private ExchangeRateService exchangeRateService;
+
+    //only available in journal mode.
+    @Autowired(required = false)
+    private TransactionJournal transactionJournal;
     
     /**
      * GET /convert
-     * @param amount - the amount of money to be exchanged
+     * @param amount - the amount of money to be exchanged, as a decimal number, e.g. 10.50.
+     * It is rounded half-even to the minor units of the source currency.
      * @param sourceCurrency - the currency of the user's money.
      * @param targetCurrency - the currency the user wants to exchange his money to.
      * Both sourceCurrency and targetCurrency are three letter currency codes, e.g. USD, EUR...
      * Supports lowercase currency codes, though uppercase is the standart.
      * NOTE: Due to API restrictions, the source currency has to be USD.
      * @return the converted amount and id with keys "exchangedAmount" and "id" respectively.
+     * In journal mode, the keys "journalNode" and "journalSequence" take the place of the id until the transaction
+     * is loaded.
      * @throws CurrencyPairLengthException
      * @throws CurrencyPairSyntaxException
      * @throws NegativeAmountException
+     * @throws UpstreamBudgetExhaustedException
+     * @throws RateUnavailableException
+     * @throws InvalidAmountException if the amount is not a decimal number.
      */
     @GetMapping("/convert")
-    public JSONObject getExchangeRate(@RequestParam Double amount,  
+    public JSONObject getExchangeRate(@RequestParam String amount,  
                                       @RequestParam String sourceCurrency, 
                                       @RequestParam String targetCurrency) throws CurrencyPairLengthException, 
                                                                                   CurrencyPairSyntaxException, 
-                                                                                  NegativeAmountException {
+                                                                                  NegativeAmountException,
+                                                                                  InvalidAmountException,
+                                                                                  UpstreamBudgetExhaustedException,
+                                                                                  RateUnavailableException {
 
         JSONObject idAndExchangedAmount;
 
         //currency codes always have to be uppercase.
         CurrencyPair currencyPair = new CurrencyPair(sourceCurrency.toUpperCase(), targetCurrency.toUpperCase());
-        double exchangedAmount = currencyPair.exchange(amount);
+        long amountMinor;
+        try {
+            amountMinor = Money.parse(amount, Money.scaleOf(currencyPair.getSourceCurrency()));
+        } catch (NumberFormatException e) {
+            throw new InvalidAmountException();
+        }
+        if (amountMinor < 0) {
+            throw new NegativeAmountException();
+        }
+        long exchangeRate = exchangeRateService.getRate(currencyPair).getRateUnits();
+        long exchangedAmountMinor = currencyPair.exchange(amountMinor, exchangeRate);
         String date = String.valueOf(LocalDate.now());
         
-        Transaction transaction = new Transaction(sourceCurrency, targetCurrency, amount, exchangedAmount, date);
-        transactionRepository.save(transaction);
+        Transaction transaction = new Transaction(sourceCurrency, targetCurrency, amountMinor, exchangedAmountMinor, date);
+        if (transactionJournal != null) {
+            transactionJournal.append(transaction);
+        }
+        else {
+            transactionRepository.save(transaction);
+        }
         
         idAndExchangedAmount = transaction.toJson();
         return idAndExchangedAmount;
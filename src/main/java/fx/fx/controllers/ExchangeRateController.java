@@ -1,11 +1,18 @@
 package fx.fx.controllers;
 import fx.fx.classes.*;
 import fx.fx.exceptions.*;
+import fx.fx.services.*;
 
+import java.util.concurrent.TimeUnit;
 
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
 
 import net.minidev.json.JSONObject;
 
@@ -13,6 +20,10 @@ import net.minidev.json.JSONObject;
  * ExchangeRateController.java
  *
  * Controller responsible for getting the exchange rate of a currency pair.
+ * The rates are served from the ExchangeRateService cache.
+ * Responses carry the version of the rate as ETag and Last-Modified, and may be cached by clients and CDNs
+ * until the rate is due for a refresh. Conditional requests for an unchanged rate get 304 Not Modified.
+ * A response without a real rate, because the API could not be read, is never cacheable.
  * Currently has a single get mapping at /exchangerate.
  * @author Yosif Gorelyov
  * @date 20/04/2021
@@ -21,6 +32,9 @@ import net.minidev.json.JSONObject;
 @RestController
 public class ExchangeRateController {
 
+    @Autowired
+    private ExchangeRateService exchangeRateService;
+
     /**
      * GET /exchangerate
      * @param currencyPair - The source currency code followed by the target currency code, e.g. USDEUR.,
@@ -28,19 +42,47 @@ public class ExchangeRateController {
      * As each currency code is exactly 3 symbols, the currency pair should be exactly 6 symbols.
      * Supports lowercase currency codes, though uppercase is the standart.
      * NOTE: Due to API restrictions, the source currency has to be USD.
-     * @return the current exchange rate of the two currencies, as JSON with key "rate".
+     * @param request - the request, checked for If-None-Match and If-Modified-Since.
+     * @return the current exchange rate of the two currencies, as JSON with key "rate",
+     * or 304 Not Modified without a body if the client already has this version of the rate.
      * @throws CurrencyPairSyntaxException
      * @throws IncorrectSyntaxException
+     * @throws UpstreamBudgetExhaustedException
+     * @throws RateUnavailableException
      */
     @GetMapping("/exchangerate")
-    public JSONObject getExchangeRate(@RequestParam String currencyPair) throws CurrencyPairLengthException, 
-                                                                                CurrencyPairSyntaxException {
+    public ResponseEntity<JSONObject> getExchangeRate(@RequestParam String currencyPair,
+                                                      WebRequest request) throws CurrencyPairLengthException, 
+                                                                                 CurrencyPairSyntaxException,
+                                                                                 UpstreamBudgetExhaustedException,
+                                                                                 RateUnavailableException {
         JSONObject exchangeRate;
 
         //currency codes have to be in uppercase.
         CurrencyPair currencyPairObj = new CurrencyPair(currencyPair.toUpperCase());
-        exchangeRate = currencyPairObj.getExchangeRateAsJson();
-      
-        return exchangeRate;
+        RateSnapshot snapshot = exchangeRateService.getRate(currencyPairObj);
+
+        //a rate of 0.0 means the API could not be read and nothing was cached: it must not be cached downstream either.
+        if (snapshot.getRate() <= 0.0) {
+            return ResponseEntity.ok().cacheControl(CacheControl.noStore()).body(snapshot.toJson());
+        }
+
+        //cacheable until the rate is due for a refresh, then servable while it is revalidated until it is
+        //fx.rates.max-stale-ms old, as the service does.
+        long age = System.currentTimeMillis() - snapshot.getFetchedAt();
+        long refreshIntervalMs = exchangeRateService.getRefreshIntervalMs();
+        CacheControl cacheControl = CacheControl.maxAge(Math.max(0, refreshIntervalMs - age), TimeUnit.MILLISECONDS)
+                                                .staleWhileRevalidate(Math.max(0, exchangeRateService.getMaxStaleMs()
+                                                                                  - Math.max(age, refreshIntervalMs)),
+                                                                      TimeUnit.MILLISECONDS)
+                                                .cachePublic();
+
+        //sets the ETag and Last-Modified headers, and the 304 status if they match the request.
+        if (request.checkNotModified(snapshot.getETag(), snapshot.getFetchedAt())) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).cacheControl(cacheControl).build();
+        }
+
+        exchangeRate = snapshot.toJson();
+        return ResponseEntity.ok().cacheControl(cacheControl).body(exchangeRate);
     }
 }
\ No newline at end of file
@@ -54,4 +54,34 @@ class GlobalExceptionHandler {
         errorMessage.put("message:", "Amount must be a positive number");
         return errorMessage;
     }
-}
\ No newline at end of file
+
+    @ResponseBody
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    @ExceptionHandler(InvalidAmountException.class)
+    public JSONObject InvalidAmountException() {
+        JSONObject errorMessage = new JSONObject();
+        errorMessage.put("status:", "400");
+        errorMessage.put("message:", "Amount must be a decimal number, e.g. 10.50");
+        return errorMessage;
+    }
+
+    @ResponseBody
+    @ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+    @ExceptionHandler(UpstreamBudgetExhaustedException.class)
+    public JSONObject UpstreamBudgetExhaustedException() {
+        JSONObject errorMessage = new JSONObject();
+        errorMessage.put("status:", "503");
+        errorMessage.put("message:", "Exchange rate is not available, try again later.");
+        return errorMessage;
+    }
+
+    @ResponseBody
+    @ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+    @ExceptionHandler(RateUnavailableException.class)
+    public JSONObject RateUnavailableException() {
+        JSONObject errorMessage = new JSONObject();
+        errorMessage.put("status:", "503");
+        errorMessage.put("message:", "Exchange rate is not available, try again later.");
+        return errorMessage;
+    }
+}
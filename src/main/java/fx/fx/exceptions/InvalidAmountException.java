@@ -0,0 +1,14 @@
+package fx.fx.exceptions;
+
+/**
+ * Thrown if the amount is not a decimal number, or is out of range.
+ */
+public class InvalidAmountException extends Exception {
+
+    //autogenerated
+	private static final long serialVersionUID = -6843527716209350463L;
+
+	public InvalidAmountException(){
+        
+    }
+}
@@ -0,0 +1,14 @@
+package fx.fx.exceptions;
+
+/**
+ * Thrown if a rate is not cached and could not be read from the Currency Layer API in time.
+ */
+public class RateUnavailableException extends Exception {
+
+    //autogenerated
+	private static final long serialVersionUID = 5207481946650337271L;
+
+	public RateUnavailableException(){
+        
+    }
+}
@@ -0,0 +1,14 @@
+package fx.fx.exceptions;
+
+/**
+ * Thrown if a rate is not cached and the Currency Layer API request budget does not allow fetching it.
+ */
+public class UpstreamBudgetExhaustedException extends Exception {
+
+    //autogenerated
+	private static final long serialVersionUID = -3127544108960935127L;
+
+	public UpstreamBudgetExhaustedException(){
+        
+    }
+}
@@ -0,0 +1,30 @@
+package fx.fx.repository;
+import fx.fx.classes.*;
+
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.data.rest.core.annotation.RepositoryRestResource;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * RefreshLeaseRepository.java
+ *
+ * The repository that stores the leases of clustered mode. Not exported at a REST endpoint.
+ */
+@RepositoryRestResource(exported = false)
+public interface RefreshLeaseRepository extends CrudRepository<RefreshLease, String> {
+
+  /**
+   * Takes or renews a lease, if it is held by the same owner or has expired. A single conditional update,
+   * so two nodes can never both take the same lease.
+   * @return 1 if the owner now holds the lease, 0 otherwise.
+   */
+  @Modifying
+  @Transactional
+  @Query("update RefreshLease l set l.owner = :owner, l.expiresAt = :expiresAt "
+       + "where l.name = :name and (l.owner = :owner or l.expiresAt < :now)")
+  int tryAcquire(@Param("name") String name, @Param("owner") String owner,
+                 @Param("expiresAt") long expiresAt, @Param("now") long now);
+}
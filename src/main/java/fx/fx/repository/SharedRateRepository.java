@@ -0,0 +1,58 @@
+package fx.fx.repository;
+import fx.fx.classes.*;
+
+import java.util.List;
+
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.data.rest.core.annotation.RepositoryRestResource;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * SharedRateRepository.java
+ *
+ * The repository that stores the rates shared between the nodes in clustered mode. Not exported at a REST endpoint.
+ */
+@RepositoryRestResource(exported = false)
+public interface SharedRateRepository extends CrudRepository<SharedRate, String> {
+
+  List<SharedRate> findByFetchedAtGreaterThan(long fetchedAt);
+  List<SharedRate> findByRequestedAtGreaterThan(long requestedAt);
+
+  @Modifying
+  @Transactional
+  @Query("update SharedRate r set r.requestedAt = :requestedAt where r.currencyPair = :currencyPair")
+  int touch(@Param("currencyPair") String currencyPair, @Param("requestedAt") long requestedAt);
+
+  /**
+   * Replaces a shared rate, if the given one is newer. A single conditional update, so concurrent nodes
+   * can never replace a rate with an older one.
+   * @return 1 if the rate was replaced, 0 otherwise.
+   */
+  @Modifying
+  @Transactional
+  @Query("update SharedRate r set r.rate = :rate, r.fetchedAt = :fetchedAt "
+       + "where r.currencyPair = :currencyPair and r.fetchedAt < :fetchedAt")
+  int replaceIfNewer(@Param("currencyPair") String currencyPair, @Param("rate") double rate,
+                     @Param("fetchedAt") long fetchedAt);
+
+  /**
+   * Adds the requests a node served for a rate since its last report.
+   */
+  @Modifying
+  @Transactional
+  @Query("update SharedRate r set r.demand = r.demand + :requests, r.requestedAt = :requestedAt "
+       + "where r.currencyPair = :currencyPair")
+  int addDemand(@Param("currencyPair") String currencyPair, @Param("requests") double requests,
+                @Param("requestedAt") long requestedAt);
+
+  /**
+   * Halves the demand of all rates, so older requests count less. Run by the leader once per refresh interval.
+   */
+  @Modifying
+  @Transactional
+  @Query("update SharedRate r set r.demand = r.demand / 2")
+  int decayDemand();
+}
@@ -3,15 +3,17 @@ import fx.fx.classes.*;
 
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.PagingAndSortingRepository;
 import org.springframework.data.repository.query.Param;
 import org.springframework.data.rest.core.annotation.RepositoryRestResource;
+import org.springframework.data.rest.core.annotation.RestResource;
 
 /**
  * TransactionRepository.java
  *
  * The repository that stores all of the Transaction objects.
- * Provides ability to find transactions by date and id.
+ * Provides ability to find transactions by date, id and journal node and sequence.
  * All entries in the repository can be seen at /transactionlist
  * @author Yosif Gorelyov
  * @date 20/04/2021
@@ -22,4 +24,12 @@ public interface TransactionRepository extends PagingAndSortingRepository<Transa
   ///In order to have paging, a Pageable object needs to be initialized.
   Page<Transaction> findBydate(@Param("date") String date, Pageable pageable);
   Page<Transaction> findByid(@Param("id") Long id, Pageable pageable);
+  Page<Transaction> findByjournalNodeAndJournalSequence(@Param("journalNode") String journalNode,
+                                                       @Param("journalSequence") Long journalSequence,
+                                                       Pageable pageable);
+
+  ///Used by the TransactionJournal to resume loading after a restart.
+  @RestResource(exported = false)
+  @Query("select max(t.journalSequence) from Transaction t where t.journalNode = :journalNode")
+  Long findMaxJournalSequence(@Param("journalNode") String journalNode);
 }
\ No newline at end of file
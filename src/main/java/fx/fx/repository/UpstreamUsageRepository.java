@@ -0,0 +1,28 @@
+package fx.fx.repository;
+import fx.fx.classes.*;
+
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.data.rest.core.annotation.RepositoryRestResource;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * UpstreamUsageRepository.java
+ *
+ * The repository that stores the API usage shared between the nodes in clustered mode. Not exported at a REST endpoint.
+ */
+@RepositoryRestResource(exported = false)
+public interface UpstreamUsageRepository extends CrudRepository<UpstreamUsage, Long> {
+
+  /**
+   * Counts a request against the billing window, if fewer than limit requests were made in it so far.
+   * A single conditional update, so concurrent nodes can never exceed the limit together.
+   * @return 1 if the request may be made, 0 otherwise.
+   */
+  @Modifying
+  @Transactional
+  @Query("update UpstreamUsage u set u.used = u.used + 1 where u.windowStart = :windowStart and u.used < :limit")
+  int tryAcquire(@Param("windowStart") long windowStart, @Param("limit") long limit);
+}
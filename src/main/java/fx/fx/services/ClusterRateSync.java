@@ -0,0 +1,233 @@
+package fx.fx.services;
+import fx.fx.classes.*;
+import fx.fx.exceptions.*;
+import fx.fx.repository.*;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * ClusterRateSync.java
+ *
+ * Clustered mode, enabled with fx.cluster.enabled=true. All nodes share the datasource, and so the rates:
+ * the node holding the RefreshLease row is the only one calling the Currency Layer API to keep the SharedRate
+ * table fresh, while the other nodes read it.
+ * Every node polls the table for rates fetched since the last poll and installs them in its ExchangeRateService
+ * cache, so a refresh made by the leader reaches all nodes within fx.cluster.poll-interval-ms.
+ * If the leader stops renewing its lease, another node takes it over after fx.cluster.lease-ms.
+ * Every node adds its requests to the demand of the shared rates, so the high-demand pairs whose refreshes have
+ * priority are ranked by the requests of the whole cluster.
+ * The lease expiry is compared between the clocks of different nodes, so the lease must be much longer than the
+ * clock skew between them.
+ * @see ExchangeRateService
+ */
+@Component
+@ConditionalOnProperty(name = "fx.cluster.enabled", havingValue = "true")
+@Lazy(false)
+public class ClusterRateSync {
+
+    private static final Logger logger = LoggerFactory.getLogger(ClusterRateSync.class);
+
+    private static final String LEASE_NAME = "rates";
+
+    private final String nodeId = UUID.randomUUID().toString();
+
+    //when this node stops considering itself the leader, a margin before the lease really expires.
+    private volatile long leaderUntil;
+
+    //the newest fetchedAt seen by pollSharedRates, only used by the scheduler thread.
+    private long lastSeen;
+
+    @Autowired
+    private RefreshLeaseRepository refreshLeaseRepository;
+
+    @Autowired
+    private SharedRateRepository sharedRateRepository;
+
+    @Autowired
+    private ExchangeRateService exchangeRateService;
+
+    @Value("${fx.cluster.lease-ms:15000}")
+    private long leaseMs;
+
+    @Value("${fx.rates.refresh-interval-ms:60000}")
+    private long refreshIntervalMs;
+
+    @Value("${fx.rates.max-stale-ms:3600000}")
+    private long maxStaleMs;
+
+    /**
+     * @return the id of this node, as written to the lease row.
+     */
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * @return true if this node holds the lease and is the one refreshing the shared rates.
+     */
+    public boolean isLeader() {
+        return System.currentTimeMillis() < leaderUntil;
+    }
+
+    /**
+     * Takes the lease if it is free or expired, or renews it if this node already holds it.
+     */
+    @Scheduled(fixedDelayString = "${fx.cluster.renew-interval-ms:5000}")
+    public void renewLease() {
+        long now = System.currentTimeMillis();
+        boolean wasLeader = isLeader();
+        try {
+            boolean acquired = refreshLeaseRepository.tryAcquire(LEASE_NAME, nodeId, now + leaseMs, now) == 1;
+            if (!acquired && !refreshLeaseRepository.existsById(LEASE_NAME)) {
+                //the row is created expired and only ever taken by the conditional update.
+                try {
+                    refreshLeaseRepository.save(new RefreshLease(LEASE_NAME, "", 0));
+                } catch (DataIntegrityViolationException e) {
+                    //another node created the lease row first.
+                }
+                acquired = refreshLeaseRepository.tryAcquire(LEASE_NAME, nodeId, now + leaseMs, now) == 1;
+            }
+            leaderUntil = acquired ? now + leaseMs / 2 : 0;
+        } catch (DataAccessException e) {
+            leaderUntil = 0;
+            logger.warn("Could not renew the refresh lease", e);
+        }
+        if (isLeader() != wasLeader) {
+            logger.info("Node {} {} the rate refresher", nodeId, isLeader() ? "is now" : "is no longer");
+        }
+    }
+
+    /**
+     * Installs the rates fetched by any node since the last poll. The poll looks back one refresh interval,
+     * so rows written by nodes with slightly late clocks are not missed; installing a rate twice is harmless.
+     */
+    @Scheduled(fixedDelayString = "${fx.cluster.poll-interval-ms:1000}")
+    public void pollSharedRates() {
+        try {
+            for (SharedRate sharedRate : sharedRateRepository.findByFetchedAtGreaterThan(lastSeen - refreshIntervalMs)) {
+                exchangeRateService.install(sharedRate.toSnapshot());
+                lastSeen = Math.max(lastSeen, sharedRate.getFetchedAt());
+            }
+        } catch (DataAccessException e) {
+            logger.warn("Could not poll the shared rates", e);
+        }
+    }
+
+    /**
+     * On the leader, refreshes the shared rates that are due and were requested by any node within fx.rates.max-stale-ms.
+     * The refreshes run on the ExchangeRateService refresher threads, so a slow API call never holds up the scheduler.
+     */
+    @Scheduled(fixedDelayString = "${fx.cluster.refresh-check-ms:5000}")
+    public void refreshSharedRates() {
+        if (!isLeader()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        try {
+            for (SharedRate sharedRate : sharedRateRepository.findByRequestedAtGreaterThan(now - maxStaleMs)) {
+                if (now - sharedRate.getFetchedAt() < refreshIntervalMs) {
+                    continue;
+                }
+                try {
+                    exchangeRateService.refreshAsync(new CurrencyPair(sharedRate.getCurrencyPair()), false);
+                } catch (CurrencyPairLengthException e) {
+                    logger.warn("Could not refresh the shared rate of {}", sharedRate.getCurrencyPair(), e);
+                }
+            }
+        } catch (DataAccessException e) {
+            logger.warn("Could not refresh the shared rates", e);
+        }
+    }
+
+    /**
+     * Reads a shared rate on behalf of a request, marking it as requested so the leader keeps it fresh.
+     * @param currencyPair - the 6-letter currency pair, e.g. USDEUR.
+     * @return the shared rate, or null if no node has fetched it yet or the datasource is unavailable.
+     */
+    public RateSnapshot readShared(String currencyPair) {
+        try {
+            if (sharedRateRepository.touch(currencyPair, System.currentTimeMillis()) == 0) {
+                return null;
+            }
+            return sharedRateRepository.findById(currencyPair).map(SharedRate::toSnapshot).orElse(null);
+        } catch (DataAccessException e) {
+            logger.warn("Could not read the shared rate of {}", currencyPair, e);
+            return null;
+        }
+    }
+
+    /**
+     * Writes a rate fetched by this node to the shared table.
+     * @param snapshot - the fetched rate.
+     * @param requested - whether the rate was fetched for a request, rather than by the leader's refresh.
+     */
+    public void publish(RateSnapshot snapshot, boolean requested) {
+        String currencyPair = snapshot.getCurrencyPair();
+        long now = System.currentTimeMillis();
+        try {
+            boolean replaced = sharedRateRepository.replaceIfNewer(currencyPair, snapshot.getRate(),
+                                                                   snapshot.getFetchedAt()) == 1;
+            if (!replaced && !sharedRateRepository.existsById(currencyPair)) {
+                try {
+                    sharedRateRepository.save(new SharedRate(snapshot, now));
+                    return;
+                } catch (DataIntegrityViolationException e) {
+                    //another node published the pair first, keep whichever rate is newer.
+                    sharedRateRepository.replaceIfNewer(currencyPair, snapshot.getRate(), snapshot.getFetchedAt());
+                }
+            }
+            if (requested) {
+                sharedRateRepository.touch(currencyPair, now);
+            }
+        } catch (DataAccessException e) {
+            logger.warn("Could not publish the shared rate of {}", currencyPair, e);
+        }
+    }
+
+    /**
+     * Adds the requests this node served since its last report to the demand of the shared rates, and ranks the
+     * rates by the demand of the whole cluster. The leader also halves the demand, once per report.
+     * @param requests - the number of requests per currency pair since the last report.
+     * @param count - the number of pairs to return.
+     * @param localRanking - the pairs returned if the datasource is unavailable.
+     * @return the count most demanded pairs in the cluster.
+     */
+    public Set<String> shareDemand(Map<String, Long> requests, int count, Set<String> localRanking) {
+        long now = System.currentTimeMillis();
+        try {
+            if (isLeader()) {
+                sharedRateRepository.decayDemand();
+            }
+            for (Map.Entry<String, Long> entry : requests.entrySet()) {
+                sharedRateRepository.addDemand(entry.getKey(), entry.getValue(), now);
+            }
+            List<SharedRate> ranking = new ArrayList<>(sharedRateRepository.findByRequestedAtGreaterThan(now - maxStaleMs));
+            ranking.sort(Comparator.comparingDouble(SharedRate::getDemand).reversed());
+            Set<String> top = new HashSet<>();
+            for (int i = 0; i < Math.min(count, ranking.size()); i++) {
+                top.add(ranking.get(i).getCurrencyPair());
+            }
+            return top;
+        } catch (DataAccessException e) {
+            logger.warn("Could not share the demand of the rates", e);
+            return localRanking;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package fx.fx.services;
+import fx.fx.classes.*;
+import fx.fx.exceptions.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.net.URLConnection;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.util.UriComponents;
+import org.springframework.web.util.UriComponentsBuilder;
+
+/**
+ * CurrencyLayerClient.java
+ *
+ * Reads exchange rates from the Currency Layer API.
+ * Package-private, so that every call goes through ExchangeRateService and is paid from the UpstreamBudget.
+ * @see ExchangeRateService
+ */
+@Component
+class CurrencyLayerClient {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Value("${fx.upstream.connect-timeout-ms:2000}")
+    private int connectTimeoutMs;
+
+    @Value("${fx.upstream.read-timeout-ms:5000}")
+    private int readTimeoutMs;
+
+    /**
+     * Reads the Currency Layer API to get the current exchange rate of a currency pair.
+     * @param currencyPair - the currency pair, with uppercase currency codes.
+     * @return the exchange rate, or 0.0 if the API could not be read within fx.upstream.connect-timeout-ms
+     * and fx.upstream.read-timeout-ms.
+     * @throws CurrencyPairSyntaxException
+     */
+    double readRate(CurrencyPair currencyPair) throws CurrencyPairSyntaxException {
+
+        //must be initialized.
+        double exchangeRate = 0.0;
+        try {
+
+            //Build a UriComponent using the Currency Layer API Url.
+            //.buildAndExpand passes the target and source currencies in place of {target} and {source}.
+            String apiUrl = "http://apilayer.net/api/live?access_key=f5bff8b046fcaa733861ec0ba01119b3&currencies={target}&source={source}&format=1";
+            UriComponents uri = UriComponentsBuilder.fromHttpUrl(apiUrl)
+                                                    .buildAndExpand(currencyPair.getTargetCurrency(),
+                                                                    currencyPair.getSourceCurrency());
+            URLConnection connection = uri.toUri().toURL().openConnection();
+            connection.setConnectTimeout(connectTimeoutMs);
+            connection.setReadTimeout(readTimeoutMs);
+
+            //A Jackson JsonNode stores all of the JSON from the url. The exchange rate value is nested in "quotes",
+            //and the key is the currencyPair.
+            JsonNode productNode;
+            try (InputStream body = connection.getInputStream()) {
+                productNode = objectMapper.readTree(body);
+            }
+
+            //If an invalid call is made, it means an invalid currency pair has been provided. success will be false.
+            if (productNode.get("success").asBoolean() == false) {
+                throw new CurrencyPairSyntaxException();
+            }
+
+            exchangeRate = productNode.get("quotes").get(currencyPair.getCurrencyPair()).asDouble();
+
+        } catch (IOException e) {
+            // Jackson could not read the input properly, or the API did not answer in time.
+            e.printStackTrace();
+        }
+
+        return exchangeRate;
+    }
+}
@@ -0,0 +1,430 @@
+package fx.fx.services;
+import fx.fx.classes.*;
+import fx.fx.exceptions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Currency;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+/**
+ * ExchangeRateService.java
+ *
+ * Caches the exchange rates read from the Currency Layer API, so that the controllers don't call the API on every request.
+ * The only way to read a rate: the CurrencyLayerClient is not visible outside this package.
+ * A rate younger than fx.rates.refresh-interval-ms is served as is. An older rate is still served for up to
+ * fx.rates.max-stale-ms while it is refreshed in the background. Concurrent requests for the same missing rate
+ * share a single API call, and wait for it for at most fx.rates.fetch-wait-ms.
+ * Every API call is paid from the UpstreamBudget. Refreshes of the fx.upstream.high-demand-pairs most requested
+ * pairs and fetches of missing rates have priority; when the budget does not allow a call, the cached rate is served.
+ * Pairs of unknown ISO 4217 codes are rejected without a call, and pairs the API rejects are remembered as invalid
+ * for fx.rates.refresh-interval-ms, so repeated requests for a bogus pair don't spend the budget.
+ * In clustered mode, only the ClusterRateSync leader calls the API; the other nodes read the shared rates instead.
+ * The cached rates are written to fx.rates.snapshot-file periodically and on shutdown, and read back at boot,
+ * so that a freshly started instance can serve traffic without waiting for the API. An empty file name disables this.
+ * Never lazily initialized: the snapshot has to be loaded at boot and the scheduled save has to be registered.
+ */
+@Service
+@Lazy(false)
+public class ExchangeRateService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExchangeRateService.class);
+
+    private final ConcurrentHashMap<String, RateSnapshot> snapshots = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, CompletableFuture<RateSnapshot>> inFlight = new ConcurrentHashMap<>();
+    private final Set<String> refreshing = ConcurrentHashMap.newKeySet();
+    //pairs the API rejected, until when they are rejected without asking it again.
+    private final ConcurrentHashMap<String, Long> invalidPairs = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LongAdder> demand = new ConcurrentHashMap<>();
+    private final Map<String, Double> demandScores = new HashMap<>();
+    private volatile Set<String> highDemandPairs = Collections.emptySet();
+    private final AtomicBoolean dirty = new AtomicBoolean(false);
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    //daemon threads, refreshes of the same pair are deduplicated. Several, so one slow API call doesn't hold up the rest.
+    private ExecutorService refresher;
+
+    @Autowired
+    private UpstreamBudget upstreamBudget;
+
+    @Autowired
+    private CurrencyLayerClient currencyLayerClient;
+
+    //only available in clustered mode.
+    @Autowired
+    private ObjectProvider<ClusterRateSync> clusterRateSync;
+
+    @Value("${fx.rates.refresh-interval-ms:60000}")
+    private long refreshIntervalMs;
+
+    @Value("${fx.rates.max-stale-ms:3600000}")
+    private long maxStaleMs;
+
+    @Value("${fx.rates.snapshot-file:rates-snapshot.json}")
+    private String snapshotFile;
+
+    @Value("${fx.upstream.high-demand-pairs:5}")
+    private int highDemandPairCount;
+
+    @Value("${fx.rates.refresher-threads:4}")
+    private int refresherThreads;
+
+    @Value("${fx.rates.fetch-wait-ms:10000}")
+    private long fetchWaitMs;
+
+    /**
+     * Returns the rate of a currency pair, calling the Currency Layer API only if there is no usable cached rate.
+     * @param currencyPair - the currency pair, with uppercase currency codes.
+     * @return the latest known rate of the currency pair.
+     * @throws CurrencyPairSyntaxException
+     * @throws UpstreamBudgetExhaustedException
+     * @throws RateUnavailableException
+     */
+    public RateSnapshot getRate(CurrencyPair currencyPair) throws CurrencyPairSyntaxException,
+                                                                  UpstreamBudgetExhaustedException,
+                                                                  RateUnavailableException {
+        String key = currencyPair.getCurrencyPair();
+        checkPair(currencyPair);
+        LongAdder requests = demand.get(key);
+        if (requests == null) {
+            requests = demand.computeIfAbsent(key, k -> new LongAdder());
+        }
+        requests.increment();
+
+        RateSnapshot snapshot = snapshots.get(key);
+        if (snapshot != null) {
+            long age = System.currentTimeMillis() - snapshot.getFetchedAt();
+            if (age < refreshIntervalMs) {
+                return snapshot;
+            }
+            if (age < maxStaleMs) {
+                refreshAsync(currencyPair, true);
+                return snapshot;
+            }
+        }
+        return fetch(currencyPair, true);
+    }
+
+    /**
+     * Rejects a pair of codes that are not ISO 4217 currencies, or that the API rejected within the refresh interval.
+     */
+    private void checkPair(CurrencyPair currencyPair) throws CurrencyPairSyntaxException {
+        try {
+            Currency.getInstance(currencyPair.getSourceCurrency());
+            Currency.getInstance(currencyPair.getTargetCurrency());
+        } catch (IllegalArgumentException e) {
+            throw new CurrencyPairSyntaxException();
+        }
+        Long invalidUntil = invalidPairs.get(currencyPair.getCurrencyPair());
+        if (invalidUntil != null) {
+            if (System.currentTimeMillis() < invalidUntil) {
+                throw new CurrencyPairSyntaxException();
+            }
+            invalidPairs.remove(currencyPair.getCurrencyPair(), invalidUntil);
+        }
+    }
+
+    /**
+     * Caches a rate fetched elsewhere, e.g. by another node of the cluster, unless a newer one is already cached.
+     * @param snapshot - the rate to cache.
+     */
+    public void install(RateSnapshot snapshot) {
+        RateSnapshot installed = snapshots.merge(snapshot.getCurrencyPair(), snapshot,
+            (current, candidate) -> candidate.getFetchedAt() > current.getFetchedAt() ? candidate : current);
+        if (installed == snapshot) {
+            dirty.set(true);
+        }
+    }
+
+    /**
+     * @return the refresh interval of the cached rates, in milliseconds.
+     */
+    public long getRefreshIntervalMs() {
+        return refreshIntervalMs;
+    }
+
+    /**
+     * @return how long a cached rate is still served while it is refreshed, in milliseconds.
+     */
+    public long getMaxStaleMs() {
+        return maxStaleMs;
+    }
+
+    /**
+     * @return true if the currency pair is among the most requested ones, whose refreshes have priority.
+     */
+    public boolean isHighDemand(String currencyPair) {
+        return highDemandPairs.contains(currencyPair);
+    }
+
+    /**
+     * Ranks the currency pairs by demand. Older demand decays by half every refresh interval.
+     * In clustered mode, the requests are shared and the pairs are ranked by the demand of the whole cluster.
+     */
+    @Scheduled(fixedDelayString = "${fx.rates.refresh-interval-ms:60000}")
+    public synchronized void rankDemand() {
+        Map<String, Long> requests = new HashMap<>();
+        for (Map.Entry<String, LongAdder> entry : demand.entrySet()) {
+            Double previous = demandScores.get(entry.getKey());
+            long count = entry.getValue().sumThenReset();
+            if (count > 0) {
+                requests.put(entry.getKey(), count);
+            }
+            double score = (previous == null ? 0.0 : previous / 2) + count;
+            if (score < 0.01) {
+                demandScores.remove(entry.getKey());
+                demand.remove(entry.getKey(), entry.getValue());
+            }
+            else {
+                demandScores.put(entry.getKey(), score);
+            }
+        }
+        List<Map.Entry<String, Double>> ranking = new ArrayList<>(demandScores.entrySet());
+        ranking.sort(Map.Entry.<String, Double>comparingByValue().reversed());
+        Set<String> top = new HashSet<>();
+        for (int i = 0; i < Math.min(highDemandPairCount, ranking.size()); i++) {
+            top.add(ranking.get(i).getKey());
+        }
+        ClusterRateSync cluster = clusterRateSync.getIfAvailable();
+        highDemandPairs = cluster == null ? top : cluster.shareDemand(requests, highDemandPairCount, top);
+    }
+
+    /**
+     * Calls the API for a currency pair, if the UpstreamBudget allows it.
+     * In clustered mode, a node other than the leader reads the shared rate instead, and only calls the API itself
+     * if no node has fetched the pair yet or the shared rate is older than fx.rates.max-stale-ms.
+     * If another thread is already fetching the same pair, waits for its result instead.
+     * If the API can't be read and no rate is cached, throws RateUnavailableException rather than serving a rate of 0.
+     * @param requested - whether the rate is needed by a request, rather than refreshed in advance.
+     */
+    private RateSnapshot fetch(CurrencyPair currencyPair, boolean requested) throws CurrencyPairSyntaxException,
+                                                                                    UpstreamBudgetExhaustedException,
+                                                                                    RateUnavailableException {
+        String key = currencyPair.getCurrencyPair();
+        checkPair(currencyPair);
+        CompletableFuture<RateSnapshot> future = new CompletableFuture<>();
+        CompletableFuture<RateSnapshot> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            return await(existing);
+        }
+
+        try {
+            RateSnapshot previous = snapshots.get(key);
+            ClusterRateSync cluster = clusterRateSync.getIfAvailable();
+            if (cluster != null && !cluster.isLeader()) {
+                RateSnapshot shared = cluster.readShared(key);
+                if (shared != null && System.currentTimeMillis() - shared.getFetchedAt() < maxStaleMs) {
+                    install(shared);
+                    RateSnapshot snapshot = snapshots.get(key);
+                    future.complete(snapshot);
+                    return snapshot;
+                }
+            }
+
+            if (!upstreamBudget.tryAcquire(previous == null || isHighDemand(key))) {
+                if (previous == null) {
+                    throw new UpstreamBudgetExhaustedException();
+                }
+                future.complete(previous);
+                return previous;
+            }
+
+            double rate = currencyLayerClient.readRate(currencyPair);
+            RateSnapshot snapshot = new RateSnapshot(key, rate, System.currentTimeMillis());
+
+            //readRate returns 0.0 if the API could not be read. Keep serving the previous rate in that case.
+            if (rate <= 0.0 && previous == null) {
+                throw new RateUnavailableException();
+            }
+            if (rate > 0.0) {
+                snapshots.put(key, snapshot);
+                dirty.set(true);
+                if (cluster != null) {
+                    cluster.publish(snapshot, requested);
+                }
+            }
+            else if (previous != null) {
+                snapshot = previous;
+            }
+            future.complete(snapshot);
+            return snapshot;
+        } catch (CurrencyPairSyntaxException e) {
+            if (snapshots.remove(key) != null) {
+                dirty.set(true);
+            }
+            demand.remove(key);
+            invalidPairs.put(key, System.currentTimeMillis() + refreshIntervalMs);
+            future.completeExceptionally(e);
+            throw e;
+        } catch (UpstreamBudgetExhaustedException | RateUnavailableException | RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    /**
+     * Waits for the fetch of another thread, for at most fx.rates.fetch-wait-ms.
+     */
+    private RateSnapshot await(CompletableFuture<RateSnapshot> future) throws CurrencyPairSyntaxException,
+                                                                              UpstreamBudgetExhaustedException,
+                                                                              RateUnavailableException {
+        try {
+            return future.get(fetchWaitMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw new RateUnavailableException();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RateUnavailableException();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof CurrencyPairSyntaxException) {
+                throw (CurrencyPairSyntaxException) e.getCause();
+            }
+            if (e.getCause() instanceof UpstreamBudgetExhaustedException) {
+                throw (UpstreamBudgetExhaustedException) e.getCause();
+            }
+            if (e.getCause() instanceof RateUnavailableException) {
+                throw (RateUnavailableException) e.getCause();
+            }
+            throw new CompletionException(e.getCause());
+        }
+    }
+
+    /**
+     * Refreshes the rate of a currency pair on a refresher thread, unless it is already being refreshed.
+     * @param requested - whether the rate is needed by a request, rather than refreshed in advance.
+     */
+    void refreshAsync(CurrencyPair currencyPair, boolean requested) {
+        String key = currencyPair.getCurrencyPair();
+        if (!refreshing.add(key)) {
+            return;
+        }
+        try {
+            refresher.execute(() -> {
+                try {
+                    fetch(currencyPair, requested);
+                } catch (CurrencyPairSyntaxException | UpstreamBudgetExhaustedException | RateUnavailableException
+                         | RuntimeException e) {
+                    logger.warn("Could not refresh the rate of {}", key, e);
+                } finally {
+                    refreshing.remove(key);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            //shutting down, the stale rate is served as is.
+            refreshing.remove(key);
+        }
+    }
+
+    /**
+     * Starts the refresher threads and loads the rates saved by a previous instance.
+     */
+    @PostConstruct
+    public void start() {
+        refresher = Executors.newFixedThreadPool(refresherThreads, runnable -> {
+            Thread thread = new Thread(runnable, "rate-refresher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        loadSnapshot();
+    }
+
+    /**
+     * Reads the rates saved by a previous instance. A missing or unreadable file only means a cold start.
+     */
+    public void loadSnapshot() {
+        if (snapshotFile.isEmpty()) {
+            return;
+        }
+        File file = new File(snapshotFile);
+        if (!file.isFile()) {
+            return;
+        }
+        try {
+            JsonNode root = objectMapper.readTree(file);
+            Iterator<Map.Entry<String, JsonNode>> fields = root.fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                JsonNode node = field.getValue();
+                snapshots.put(field.getKey(), new RateSnapshot(field.getKey(),
+                                                               node.get("rate").asDouble(),
+                                                               node.get("fetchedAt").asLong()));
+            }
+            logger.info("Loaded {} exchange rates from {}", snapshots.size(), file.getAbsolutePath());
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Could not read the rate snapshot {}, starting cold", file.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * Writes the cached rates to the snapshot file if they changed since the last write.
+     * The file is replaced atomically, so a crash mid-write never leaves a truncated snapshot behind.
+     */
+    @Scheduled(fixedDelayString = "${fx.rates.snapshot-interval-ms:30000}",
+               initialDelayString = "${fx.rates.snapshot-interval-ms:30000}")
+    public void saveSnapshot() {
+        if (snapshotFile.isEmpty() || !dirty.getAndSet(false)) {
+            return;
+        }
+        ObjectNode root = objectMapper.createObjectNode();
+        for (RateSnapshot snapshot : snapshots.values()) {
+            ObjectNode node = root.putObject(snapshot.getCurrencyPair());
+            node.put("rate", snapshot.getRate());
+            node.put("fetchedAt", snapshot.getFetchedAt());
+        }
+        try {
+            Path target = Paths.get(snapshotFile).toAbsolutePath();
+            Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+            objectMapper.writeValue(temp.toFile(), root);
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            dirty.set(true);
+            logger.warn("Could not write the rate snapshot {}", snapshotFile, e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        refresher.shutdownNow();
+        saveSnapshot();
+    }
+}
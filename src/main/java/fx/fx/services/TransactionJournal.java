@@ -0,0 +1,602 @@
+package fx.fx.services;
+import fx.fx.classes.*;
+import fx.fx.repository.*;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * TransactionJournal.java
+ *
+ * Journal mode, enabled with fx.journal.enabled=true. Transactions are appended to a memory-mapped log in fx.journal.dir
+ * and acknowledged once the log is flushed to disk, instead of being saved to the repository one by one.
+ * A flusher thread forces the log to disk for all the transactions appended since its previous flush at once
+ * (group commit), so concurrent conversions share the cost of a flush.
+ * The log is split into segments of fx.journal.segment-bytes, named after the first sequence number in them.
+ * Each record is the payload length, its CRC32, and the payload: the sequence number, the amounts in minor units and
+ * the currencies and date as length-prefixed UTF-8. A torn or zeroed record marks the end of a segment.
+ * Every fx.journal.replay-interval-ms the flushed records are loaded into the repository in batches, and the last loaded
+ * sequence number is written to the checkpoint file. Fully loaded segments are deleted.
+ * At boot, the log is loaded from the checkpoint, or from the highest journal sequence in the repository if that
+ * is further, so records that were never loaded are replayed exactly once.
+ * Each journal directory has its own node id, stored next to the segments, and journal sequences are only unique
+ * together with it. So the nodes of a cluster can load their journals into the same repository.
+ * The directory is locked while the journal is open, so two processes can never share it, and it is synced whenever
+ * a file is created in it, so that a new segment survives a power loss together with the records in it.
+ * A batch the repository rejects is loaded record by record. A record that violates a constraint is appended
+ * to the rejected log instead of holding up the rest of the journal forever.
+ */
+@Component
+@ConditionalOnProperty(name = "fx.journal.enabled", havingValue = "true")
+@Lazy(false)
+public class TransactionJournal {
+
+    private static final Logger logger = LoggerFactory.getLogger(TransactionJournal.class);
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String CHECKPOINT = "checkpoint";
+    private static final String NODE = "node";
+    private static final String REJECTED = "rejected.log";
+    private static final String LOCK = "lock";
+
+    //payload length and CRC32.
+    private static final int HEADER_BYTES = 8;
+
+    //sequence number and the two amounts.
+    private static final int FIXED_PAYLOAD_BYTES = 24;
+
+    private static final long FLUSH_RETRY_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    @Autowired
+    private TransactionRepository transactionRepository;
+
+    @Value("${fx.journal.dir:journal}")
+    private String dir;
+
+    @Value("${fx.journal.segment-bytes:16777216}")
+    private int segmentBytes;
+
+    @Value("${fx.journal.replay-batch:500}")
+    private int replayBatch;
+
+    private Path directory;
+    private String nodeId;
+    private FileChannel lockChannel;
+    private FileLock directoryLock;
+
+    //the writer state, guarded by lock. appended wakes up the flusher, flushed wakes up the appenders.
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition appended = lock.newCondition();
+    private final Condition flushed = lock.newCondition();
+    private MappedByteBuffer segment;
+    private int position;
+    private long lastSequence;
+    private long durableSequence;
+    private boolean running;
+    private Thread flusher;
+
+    //the replayer state, only used by replay().
+    private long replayedSequence;
+    private Path replaySegment;
+    private ByteBuffer replayBuffer;
+    private int replayOffset;
+
+    /**
+     * Recovers the end of the log and the replay position, then starts the flusher.
+     * @throws IOException
+     */
+    @PostConstruct
+    public void open() throws IOException {
+        directory = Paths.get(dir).toAbsolutePath();
+        Files.createDirectories(directory);
+        lockDirectory();
+        nodeId = readNodeId();
+        Long loaded = transactionRepository.findMaxJournalSequence(nodeId);
+        replayedSequence = Math.max(readCheckpoint(), loaded == null ? 0 : loaded);
+
+        List<Path> segments = listSegments();
+        long recovered = replayedSequence;
+        if (segments.isEmpty()) {
+            segment = map(newSegment(recovered + 1), MapMode.READ_WRITE);
+            position = 0;
+        }
+        else {
+            Path last = segments.get(segments.size() - 1);
+            segment = map(last, MapMode.READ_WRITE);
+            position = 0;
+            int length;
+            while ((length = recordLength(segment, position)) > 0) {
+                recovered = Math.max(recovered, segment.getLong(position + HEADER_BYTES));
+                position += length;
+            }
+            recovered = Math.max(recovered, firstSequence(last) - 1);
+
+            //clear what is left of a torn write, so it cannot be mistaken for a record later on.
+            for (int i = position; i < segment.limit(); i++) {
+                segment.put(i, (byte) 0);
+            }
+            segment.force();
+        }
+        lastSequence = recovered;
+        durableSequence = recovered;
+
+        running = true;
+        flusher = new Thread(this::flushLoop, "journal-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+        logger.info("Opened transaction journal {} of node {} at sequence {}, loaded up to {}", directory, nodeId,
+                    lastSequence, replayedSequence);
+    }
+
+    /**
+     * Appends a transaction to the journal and waits until it is flushed to disk.
+     * Sets the journal node and sequence of the transaction.
+     * @param transaction - the transaction to append.
+     * @return the journal sequence of the transaction.
+     */
+    public long append(Transaction transaction) {
+        byte[] sourceCurrency = encode(transaction.getSourceCurrency());
+        byte[] targetCurrency = encode(transaction.getTargetCurrency());
+        byte[] date = encode(transaction.getDate());
+        int length = FIXED_PAYLOAD_BYTES + 3 + sourceCurrency.length + targetCurrency.length + date.length;
+
+        long sequence;
+        lock.lock();
+        try {
+            if (!running) {
+                throw new IllegalStateException("The transaction journal is closed");
+            }
+            if (position + HEADER_BYTES + length > segment.limit()) {
+                rotate();
+            }
+            sequence = ++lastSequence;
+
+            int offset = position + HEADER_BYTES;
+            segment.putLong(offset, sequence);
+            segment.putLong(offset + 8, transaction.getAmountMinor());
+            segment.putLong(offset + 16, transaction.getExchangedAmountMinor());
+            offset = put(segment, offset + FIXED_PAYLOAD_BYTES, sourceCurrency);
+            offset = put(segment, offset, targetCurrency);
+            put(segment, offset, date);
+            segment.putInt(position + 4, checksum(segment, position + HEADER_BYTES, length));
+            segment.putInt(position, length);
+            position += HEADER_BYTES + length;
+
+            appended.signal();
+            while (durableSequence < sequence) {
+                flushed.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+        transaction.setJournalNode(nodeId);
+        transaction.setJournalSequence(sequence);
+        return sequence;
+    }
+
+    /**
+     * Forces the appended records to disk, outside of the lock, so appends go on while it flushes.
+     * Every append waiting when a flush completes is acknowledged by it.
+     */
+    private void flushLoop() {
+        lock.lock();
+        try {
+            while (running || durableSequence < lastSequence) {
+                if (durableSequence == lastSequence) {
+                    appended.awaitUninterruptibly();
+                    continue;
+                }
+                long target = lastSequence;
+                MappedByteBuffer buffer = segment;
+                lock.unlock();
+                try {
+                    buffer.force();
+                } catch (RuntimeException e) {
+                    logger.error("Could not flush the transaction journal, retrying", e);
+                    LockSupport.parkNanos(FLUSH_RETRY_NANOS);
+                    continue;
+                } finally {
+                    lock.lock();
+                }
+                durableSequence = Math.max(durableSequence, target);
+                flushed.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Flushes the full segment and continues in a new one. Called with the lock held.
+     */
+    private void rotate() {
+        segment.force();
+        durableSequence = lastSequence;
+        flushed.signalAll();
+        try {
+            segment = map(newSegment(lastSequence + 1), MapMode.READ_WRITE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        position = 0;
+    }
+
+    /**
+     * Loads the flushed records into the repository, in batches of fx.journal.replay-batch.
+     * @return the number of transactions loaded.
+     */
+    @Scheduled(fixedDelayString = "${fx.journal.replay-interval-ms:200}")
+    public synchronized int replay() {
+        long durable;
+        lock.lock();
+        try {
+            durable = durableSequence;
+        } finally {
+            lock.unlock();
+        }
+
+        int loaded = 0;
+        List<Transaction> batch = new ArrayList<>();
+        try {
+            while (replayedSequence + batch.size() < durable) {
+                Transaction transaction = readNext();
+                if (transaction == null) {
+                    break;
+                }
+                batch.add(transaction);
+                if (batch.size() == replayBatch) {
+                    loaded += save(batch);
+                }
+            }
+            loaded += save(batch);
+        } catch (IOException | RuntimeException e) {
+            //start over from the last saved batch next time.
+            replaySegment = null;
+            replayBuffer = null;
+            logger.warn("Could not load the transaction journal at sequence {}", replayedSequence + 1, e);
+        }
+        return loaded;
+    }
+
+    private int save(List<Transaction> batch) throws IOException {
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        int saved = batch.size();
+        try {
+            transactionRepository.saveAll(batch);
+            replayedSequence = batch.get(saved - 1).getJournalSequence();
+        } catch (DataIntegrityViolationException e) {
+            logger.warn("Could not load the transaction journal batch at sequence {}, loading it record by record",
+                        replayedSequence + 1, e);
+            saved = 0;
+            for (Transaction transaction : batch) {
+                //the batch was rolled back, but its transactions were given ids: save fresh copies.
+                try {
+                    transactionRepository.save(copy(transaction));
+                    saved++;
+                } catch (DataIntegrityViolationException rejected) {
+                    reject(transaction, rejected);
+                }
+                replayedSequence = transaction.getJournalSequence();
+            }
+        }
+        batch.clear();
+        writeCheckpoint();
+        deleteReplayedSegments();
+        return saved;
+    }
+
+    /**
+     * Reads the record after the last one read, moving on to the next segment at the end of one.
+     * @return the transaction, or null if there is no further record.
+     */
+    private Transaction readNext() throws IOException {
+        if (replayBuffer == null && !seekReplayPosition()) {
+            return null;
+        }
+        int length;
+        while ((length = recordLength(replayBuffer, replayOffset)) < 0) {
+            Path next = nextSegment(replaySegment);
+            if (next == null) {
+                return null;
+            }
+            replaySegment = next;
+            replayBuffer = map(next, MapMode.READ_ONLY);
+            replayOffset = 0;
+        }
+        Transaction transaction = decode(replayBuffer, replayOffset + HEADER_BYTES);
+        transaction.setJournalNode(nodeId);
+        replayOffset += length;
+        return transaction;
+    }
+
+    /**
+     * Positions the replayer right after the last loaded record.
+     * @return false if there is no segment to read.
+     */
+    private boolean seekReplayPosition() throws IOException {
+        Path start = null;
+        for (Path path : listSegments()) {
+            if (firstSequence(path) <= replayedSequence + 1) {
+                start = path;
+            }
+        }
+        if (start == null) {
+            return false;
+        }
+        replaySegment = start;
+        replayBuffer = map(start, MapMode.READ_ONLY);
+        replayOffset = 0;
+        int length;
+        while ((length = recordLength(replayBuffer, replayOffset)) > 0
+               && replayBuffer.getLong(replayOffset + HEADER_BYTES) <= replayedSequence) {
+            replayOffset += length;
+        }
+        return true;
+    }
+
+    /**
+     * Deletes the segments whose records have all been loaded, except for the one being read.
+     */
+    private void deleteReplayedSegments() throws IOException {
+        List<Path> segments = listSegments();
+        for (int i = 0; i + 1 < segments.size(); i++) {
+            Path path = segments.get(i);
+            if (firstSequence(segments.get(i + 1)) > replayedSequence + 1 || path.equals(replaySegment)) {
+                break;
+            }
+            Files.deleteIfExists(path);
+        }
+    }
+
+    /**
+     * Stops the flusher once every appended record is flushed. Records not loaded yet are replayed at the next boot.
+     */
+    @PreDestroy
+    public void close() throws InterruptedException, IOException {
+        lock.lock();
+        try {
+            running = false;
+            appended.signal();
+        } finally {
+            lock.unlock();
+        }
+        flusher.join();
+        directoryLock.release();
+        lockChannel.close();
+    }
+
+    /**
+     * Locks the journal directory for this process.
+     * @throws IllegalStateException if another process, or another journal in this one, holds the lock.
+     */
+    private void lockDirectory() throws IOException {
+        lockChannel = FileChannel.open(directory.resolve(LOCK), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            directoryLock = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            directoryLock = null;
+        }
+        if (directoryLock == null) {
+            lockChannel.close();
+            throw new IllegalStateException("The transaction journal " + directory + " is in use by another process,"
+                                            + " give each node its own fx.journal.dir");
+        }
+    }
+
+    /**
+     * Forces the directory entries to disk, e.g. of a new segment. Not supported on every platform.
+     */
+    private void syncDirectory() {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            logger.debug("Could not sync the transaction journal directory {}", directory, e);
+        }
+    }
+
+    /**
+     * @return the size of the record at position, header included, or -1 if there is no intact record there.
+     */
+    private static int recordLength(ByteBuffer buffer, int position) {
+        if (position + HEADER_BYTES > buffer.limit()) {
+            return -1;
+        }
+        int length = buffer.getInt(position);
+        if (length < FIXED_PAYLOAD_BYTES || length > buffer.limit() - position - HEADER_BYTES) {
+            return -1;
+        }
+        if (buffer.getInt(position + 4) != checksum(buffer, position + HEADER_BYTES, length)) {
+            return -1;
+        }
+        return HEADER_BYTES + length;
+    }
+
+    private static int checksum(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer payload = buffer.duplicate();
+        payload.limit(offset + length);
+        payload.position(offset);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    private static Transaction decode(ByteBuffer buffer, int offset) {
+        long sequence = buffer.getLong(offset);
+        long amountMinor = buffer.getLong(offset + 8);
+        long exchangedAmountMinor = buffer.getLong(offset + 16);
+        offset += FIXED_PAYLOAD_BYTES;
+        String sourceCurrency = get(buffer, offset);
+        offset += 1 + (buffer.get(offset) & 0xFF);
+        String targetCurrency = get(buffer, offset);
+        offset += 1 + (buffer.get(offset) & 0xFF);
+        String date = get(buffer, offset);
+
+        Transaction transaction = new Transaction(sourceCurrency, targetCurrency, amountMinor, exchangedAmountMinor, date);
+        transaction.setJournalSequence(sequence);
+        return transaction;
+    }
+
+    private static Transaction copy(Transaction transaction) {
+        Transaction copy = new Transaction(transaction.getSourceCurrency(), transaction.getTargetCurrency(),
+                                           transaction.getAmountMinor(), transaction.getExchangedAmountMinor(),
+                                           transaction.getDate());
+        copy.setJournalNode(transaction.getJournalNode());
+        copy.setJournalSequence(transaction.getJournalSequence());
+        return copy;
+    }
+
+    /**
+     * Appends a record the repository rejected to the rejected log, as a CSV line, and skips it.
+     */
+    private void reject(Transaction transaction, DataIntegrityViolationException e) throws IOException {
+        logger.error("The repository rejected journal record {} of node {}, writing it to {}",
+                     transaction.getJournalSequence(), nodeId, REJECTED, e);
+        String line = transaction.getJournalSequence() + "," + nodeId + "," + transaction.getSourceCurrency() + ","
+                      + transaction.getTargetCurrency() + "," + transaction.getAmountMinor() + ","
+                      + transaction.getExchangedAmountMinor() + "," + transaction.getDate() + "\n";
+        Files.write(directory.resolve(REJECTED), line.getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.SYNC);
+    }
+
+    private static byte[] encode(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 255) {
+            throw new IllegalArgumentException("Too long for the transaction journal: " + value);
+        }
+        return bytes;
+    }
+
+    private static int put(ByteBuffer buffer, int offset, byte[] bytes) {
+        buffer.put(offset, (byte) bytes.length);
+        for (int i = 0; i < bytes.length; i++) {
+            buffer.put(offset + 1 + i, bytes[i]);
+        }
+        return offset + 1 + bytes.length;
+    }
+
+    private static String get(ByteBuffer buffer, int offset) {
+        byte[] bytes = new byte[buffer.get(offset) & 0xFF];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(offset + 1 + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Maps a segment, creating it if needed. A new segment is synced with its size and directory entry before use.
+     */
+    private MappedByteBuffer map(Path path, MapMode mode) throws IOException {
+        try (FileChannel channel = mode == MapMode.READ_ONLY
+                 ? FileChannel.open(path, StandardOpenOption.READ)
+                 : FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
+            if (channel.size() > 0) {
+                return channel.map(mode, 0, channel.size());
+            }
+            MappedByteBuffer buffer = channel.map(mode, 0, segmentBytes);
+            channel.force(true);
+            syncDirectory();
+            return buffer;
+        }
+    }
+
+    private Path newSegment(long firstSequence) {
+        return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, firstSequence, SEGMENT_SUFFIX));
+    }
+
+    private static long firstSequence(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    /**
+     * @return the segments, oldest first. The zero-padded names sort by first sequence number.
+     */
+    private List<Path> listSegments() throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path path : stream) {
+                segments.add(path);
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    private Path nextSegment(Path current) throws IOException {
+        for (Path path : listSegments()) {
+            if (path.compareTo(current) > 0) {
+                return path;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the node id of the journal directory, created on first use.
+     */
+    private String readNodeId() throws IOException {
+        Path node = directory.resolve(NODE);
+        if (Files.isRegularFile(node)) {
+            return new String(Files.readAllBytes(node), StandardCharsets.US_ASCII).trim();
+        }
+        String id = UUID.randomUUID().toString();
+        Path temp = directory.resolve(NODE + ".tmp");
+        Files.write(temp, id.getBytes(StandardCharsets.US_ASCII));
+        Files.move(temp, node, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory();
+        return id;
+    }
+
+    private long readCheckpoint() throws IOException {
+        Path checkpoint = directory.resolve(CHECKPOINT);
+        if (!Files.isRegularFile(checkpoint)) {
+            return 0;
+        }
+        return Long.parseLong(new String(Files.readAllBytes(checkpoint), StandardCharsets.US_ASCII).trim());
+    }
+
+    private void writeCheckpoint() throws IOException {
+        Path checkpoint = directory.resolve(CHECKPOINT);
+        Path temp = directory.resolve(CHECKPOINT + ".tmp");
+        Files.write(temp, Long.toString(replayedSequence).getBytes(StandardCharsets.US_ASCII));
+        Files.move(temp, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
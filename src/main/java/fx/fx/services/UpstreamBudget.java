@@ -0,0 +1,227 @@
+package fx.fx.services;
+import fx.fx.classes.*;
+import fx.fx.repository.*;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.TemporalAdjusters;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Component;
+
+/**
+ * UpstreamBudget.java
+ *
+ * A token bucket around the Currency Layer API, whose access key has a monthly request quota.
+ * Tokens are added at quota / month, up to fx.upstream.burst, so the allowed requests are spread over the
+ * billing window (a calendar month, UTC) instead of being spent by the first traffic spike.
+ * Requests are either high priority (a missing rate, or a rate of a high-demand pair) or low priority.
+ * Low priority requests leave fx.upstream.reserve of the bucket to the high priority ones; once the bucket is
+ * that low, the budget is tight and only high priority requests are allowed.
+ * Usage is not persisted: at boot the current window is assumed to have been spent on pace.
+ * In clustered mode, every request allowed by the local bucket is also counted against the UpstreamUsage row of the
+ * window in the shared datasource. The nodes together may only run a bucket ahead of the pace of the quota, so N
+ * nodes spend the quota of the access key once, not N times. If the datasource is unavailable, no request is made.
+ */
+@Component
+public class UpstreamBudget {
+
+    private static final Logger logger = LoggerFactory.getLogger(UpstreamBudget.class);
+
+    private final long quota;
+    private final double burst;
+    private final double reserveTokens;
+    private final Clock clock;
+
+    private long windowStart;
+    private long windowEnd;
+    private double refillPerMs;
+    private long used;
+    private double tokens;
+    private long lastRefill;
+
+    //only used in clustered mode, so that a single node does not initialize the repository at boot.
+    @Autowired
+    private ObjectProvider<UpstreamUsageRepository> upstreamUsageRepository;
+
+    @Value("${fx.cluster.enabled:false}")
+    private boolean shared;
+
+    @Autowired
+    public UpstreamBudget(@Value("${fx.upstream.monthly-quota:1000}") long quota,
+                          @Value("${fx.upstream.burst:10}") int burst,
+                          @Value("${fx.upstream.reserve:0.5}") double reserve) {
+        this(quota, burst, reserve, Clock.systemUTC());
+    }
+
+    /**
+     * Constructor for an UpstreamBudget object.
+     * @param quota - the number of requests allowed per billing window.
+     * @param burst - the capacity of the bucket.
+     * @param reserve - the fraction of the bucket reserved for high priority requests.
+     * @param clock - the clock the billing window and refills are measured with.
+     */
+    public UpstreamBudget(long quota, int burst, double reserve, Clock clock) {
+        this.quota = quota;
+        this.burst = burst;
+        this.reserveTokens = burst * reserve;
+        this.clock = clock;
+        startWindow(clock.millis());
+        this.used = Math.min(quota, (long) ((clock.millis() - windowStart) * refillPerMs));
+    }
+
+    /**
+     * Takes a token from the bucket, if there is one to spare for a request of the given priority.
+     * @param highPriority - whether the request may use the reserved part of the bucket.
+     * @return true if the request may be made.
+     */
+    public boolean tryAcquire(boolean highPriority) {
+        long window;
+        long limit;
+        synchronized (this) {
+            refill();
+            double needed = highPriority ? 1.0 : 1.0 + reserveTokens;
+            if (used >= quota || tokens < needed) {
+                return false;
+            }
+            tokens -= 1.0;
+            used++;
+            window = windowStart;
+            limit = Math.min(quota, (long) (pace() + burst - (highPriority ? 0.0 : reserveTokens)));
+        }
+        return !shared || tryAcquireShared(window, limit);
+    }
+
+    /**
+     * Counts a request against the shared usage of the window, creating the row if no node has done so yet.
+     * A new row assumes the window was spent on pace, same as the local bucket at boot.
+     */
+    private boolean tryAcquireShared(long window, long limit) {
+        try {
+            UpstreamUsageRepository repository = upstreamUsageRepository.getObject();
+            if (repository.tryAcquire(window, limit) == 1) {
+                return true;
+            }
+            if (repository.existsById(window)) {
+                return false;
+            }
+            try {
+                repository.save(new UpstreamUsage(window, Math.min(quota, (long) pace())));
+            } catch (DataIntegrityViolationException e) {
+                //another node created the row first.
+            }
+            return repository.tryAcquire(window, limit) == 1;
+        } catch (DataAccessException e) {
+            logger.warn("Could not count the request against the shared budget", e);
+            return false;
+        }
+    }
+
+    /**
+     * @return true if only high priority requests are currently allowed.
+     */
+    public synchronized boolean isTight() {
+        refill();
+        return used >= quota || tokens < 1.0 + reserveTokens;
+    }
+
+    /**
+     * @return the number of requests left in the current billing window.
+     */
+    public long getRemaining() {
+        return quota - getUsed();
+    }
+
+    /**
+     * @return the number of requests allowed per billing window.
+     */
+    public long getQuota() {
+        return quota;
+    }
+
+    /**
+     * @return the end of the current billing window, in milliseconds since the epoch.
+     */
+    public synchronized long getWindowEnd() {
+        refill();
+        return windowEnd;
+    }
+
+    /**
+     * Projects when the quota runs out, at the average consumption rate of the current billing window.
+     * @return the projected exhaustion time in milliseconds since the epoch, or -1 if nothing has been used yet.
+     */
+    public long getProjectedExhaustion() {
+        long used = getUsed();
+        long now;
+        long elapsed;
+        synchronized (this) {
+            now = lastRefill;
+            elapsed = lastRefill - windowStart;
+        }
+        if (used == 0 || elapsed <= 0) {
+            return -1;
+        }
+        double usedPerMs = (double) used / elapsed;
+        return now + (long) ((quota - used) / usedPerMs);
+    }
+
+    /**
+     * @return the number of requests made in the current billing window, by all nodes in clustered mode.
+     */
+    private long getUsed() {
+        long window;
+        long localUsed;
+        synchronized (this) {
+            refill();
+            window = windowStart;
+            localUsed = used;
+        }
+        if (!shared) {
+            return localUsed;
+        }
+        try {
+            return upstreamUsageRepository.getObject().findById(window).map(UpstreamUsage::getUsed).orElse(localUsed);
+        } catch (DataAccessException e) {
+            logger.warn("Could not read the shared budget", e);
+            return localUsed;
+        }
+    }
+
+    /**
+     * @return the number of requests the quota allows by now, if spent evenly over the billing window.
+     */
+    private double pace() {
+        return (lastRefill - windowStart) * refillPerMs;
+    }
+
+    private void refill() {
+        long now = clock.millis();
+        if (now >= windowEnd) {
+            startWindow(now);
+        }
+        tokens = Math.min(burst, tokens + (now - lastRefill) * refillPerMs);
+        lastRefill = now;
+    }
+
+    private void startWindow(long now) {
+        ZonedDateTime start = Instant.ofEpochMilli(now).atZone(ZoneOffset.UTC)
+                                     .with(TemporalAdjusters.firstDayOfMonth())
+                                     .truncatedTo(ChronoUnit.DAYS);
+        windowStart = start.toInstant().toEpochMilli();
+        windowEnd = start.plusMonths(1).toInstant().toEpochMilli();
+        refillPerMs = (double) quota / (windowEnd - windowStart);
+        used = 0;
+        tokens = burst;
+        lastRefill = now;
+    }
+}
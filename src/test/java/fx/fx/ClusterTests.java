@@ -0,0 +1,133 @@
+package fx.fx;
+
+import java.net.ServerSocket;
+
+import org.h2.tools.Server;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import fx.fx.classes.CurrencyPair;
+import fx.fx.classes.RateSnapshot;
+import fx.fx.services.ClusterRateSync;
+import fx.fx.services.ExchangeRateService;
+import fx.fx.services.UpstreamBudget;
+
+/**
+ * Runs two application instances in clustered mode against a local H2 server.
+ */
+class ClusterTests {
+
+	private Server h2Server;
+	private ConfigurableApplicationContext first;
+	private ConfigurableApplicationContext second;
+
+	@BeforeEach
+	public void startCluster() throws Exception {
+		int port;
+		try (ServerSocket socket = new ServerSocket(0)) {
+			port = socket.getLocalPort();
+		}
+		h2Server = Server.createTcpServer("-tcpPort", String.valueOf(port), "-ifNotExists").start();
+		String url = "jdbc:h2:tcp://localhost:" + port + "/mem:fxcluster" + port + ";DB_CLOSE_DELAY=-1";
+		first = startNode(url);
+		second = startNode(url);
+	}
+
+	@AfterEach
+	public void stopCluster() {
+		second.close();
+		first.close();
+		h2Server.stop();
+	}
+
+	private ConfigurableApplicationContext startNode(String url) {
+		//passed as arguments, as default properties are overridden by application.properties.
+		return new SpringApplicationBuilder(FxApplication.class)
+				.run("--server.port=0",
+					 "--fx.cluster.enabled=true",
+					 "--spring.datasource.url=" + url,
+					 "--spring.jpa.hibernate.ddl-auto=update",
+					 "--fx.rates.snapshot-file=");
+	}
+
+	/**
+	 * Tests that exactly one node holds the refresh lease.
+	 */
+	@Test
+	public void singleLeaderTest() {
+		ClusterRateSync firstSync = first.getBean(ClusterRateSync.class);
+		ClusterRateSync secondSync = second.getBean(ClusterRateSync.class);
+		firstSync.renewLease();
+		secondSync.renewLease();
+		assertThat(firstSync.isLeader()).isNotEqualTo(secondSync.isLeader());
+	}
+
+	/**
+	 * Tests that a rate published by one node is served by the other without calling the API.
+	 * @throws Exception
+	 */
+	@Test
+	public void sharedRateTest() throws Exception {
+		RateSnapshot published = new RateSnapshot("USDGBP", 0.72, System.currentTimeMillis());
+		first.getBean(ClusterRateSync.class).publish(published, true);
+		second.getBean(ClusterRateSync.class).pollSharedRates();
+
+		RateSnapshot served = second.getBean(ExchangeRateService.class).getRate(new CurrencyPair("USDGBP"));
+		assertThat(served.getRate()).isEqualTo(0.72);
+		assertThat(served.getFetchedAt()).isEqualTo(published.getFetchedAt());
+	}
+
+	/**
+	 * Tests that the nodes share a single budget: together they can't run more than one bucket ahead of the quota.
+	 */
+	@Test
+	public void sharedBudgetTest() {
+		UpstreamBudget firstBudget = first.getBean(UpstreamBudget.class);
+		UpstreamBudget secondBudget = second.getBean(UpstreamBudget.class);
+		int allowed = 0;
+		for (int i = 0; i < 10; i++) {
+			allowed += firstBudget.tryAcquire(true) ? 1 : 0;
+			allowed += secondBudget.tryAcquire(true) ? 1 : 0;
+		}
+		//a bucket of 10, plus at most one request the quota allowed while the loop ran.
+		assertThat(allowed).isBetween(10, 11);
+		assertThat(secondBudget.getRemaining()).isEqualTo(firstBudget.getRemaining());
+	}
+
+	/**
+	 * Tests that an older rate published late does not replace a newer one.
+	 */
+	@Test
+	public void olderRateIsNotPublishedTest() {
+		long now = System.currentTimeMillis();
+		first.getBean(ClusterRateSync.class).publish(new RateSnapshot("USDJPY", 108.5, now), true);
+		second.getBean(ClusterRateSync.class).publish(new RateSnapshot("USDJPY", 107.9, now - 1000), true);
+
+		RateSnapshot shared = second.getBean(ClusterRateSync.class).readShared("USDJPY");
+		assertThat(shared.getRate()).isEqualTo(108.5);
+	}
+
+	/**
+	 * Tests that the pairs in demand on one node are high-demand pairs on the other node too.
+	 * @throws Exception
+	 */
+	@Test
+	public void sharedDemandTest() throws Exception {
+		first.getBean(ClusterRateSync.class).publish(new RateSnapshot("USDCAD", 1.25, System.currentTimeMillis()), false);
+		ExchangeRateService secondService = second.getBean(ExchangeRateService.class);
+		second.getBean(ClusterRateSync.class).pollSharedRates();
+		for (int i = 0; i < 10; i++) {
+			secondService.getRate(new CurrencyPair("USDCAD"));
+		}
+		secondService.rankDemand();
+
+		ExchangeRateService firstService = first.getBean(ExchangeRateService.class);
+		firstService.rankDemand();
+		assertThat(firstService.isHighDemand("USDCAD")).isTrue();
+	}
+}
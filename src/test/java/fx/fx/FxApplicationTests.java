@@ -5,21 +5,48 @@ import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.web.servlet.MockMvc;
 
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
 import fx.fx.classes.CurrencyPair;
+import fx.fx.classes.RateSnapshot;
 import fx.fx.controllers.ExchangeRateController;
+import fx.fx.services.ExchangeRateService;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.matchesPattern;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
-@SpringBootTest
+@SpringBootTest(properties = "fx.rates.snapshot-file=")
 @AutoConfigureMockMvc
 class FxApplicationTests {
 
 	@Autowired
 	private ExchangeRateController controller;
 
+	@Autowired
+	private ExchangeRateService exchangeRateService;
+
+	@Autowired
+	private MockMvc mockMvc;
+
+	/**
+	 * Reads a rate through the ExchangeRateService, skipping the test if the Currency Layer API is not reachable.
+	 */
+	private RateSnapshot liveRate(CurrencyPair currencyPair) throws Exception {
+		try {
+			return exchangeRateService.getRate(currencyPair);
+		} catch (RateUnavailableException e) {
+			assumeTrue(false, "The Currency Layer API is not reachable");
+			return null;
+		}
+	}
+
 	/**
 	 * Sanity check test
 	 * @throws Exception
@@ -53,13 +80,13 @@ class FxApplicationTests {
 	}
 
 	/**
-	 * Tests the basic functionality of getExchangeRate - should return a positive double.
+	 * Tests the basic functionality of getRate - should return a positive double.
 	 * @throws Exception
 	 */
 	@Test
 	public void getExchangeRateTest() throws Exception {
 		CurrencyPair currencyPair = new CurrencyPair("USDEUR");
-		double exchangeRate = currencyPair.getExchangeRate();
+		double exchangeRate = liveRate(currencyPair).getRate();
 		assertThat (exchangeRate > 0.0);
 	}
 
@@ -71,7 +98,7 @@ class FxApplicationTests {
 	public void CurrencyPairSyntaxExceptionTest() throws Exception {
 		CurrencyPair currencyPair = new CurrencyPair("AAABBB");
 		assertThrows(CurrencyPairSyntaxException.class, () -> { 
-			currencyPair.getExchangeRate();
+			exchangeRateService.getRate(currencyPair);
 		});
 	}
 
@@ -82,9 +109,9 @@ class FxApplicationTests {
 	@Test
 	public void negativeAmountExceptionTest() throws Exception {
 		CurrencyPair currencyPair = new CurrencyPair("USDEUR");
-		double negativeAmount = -100;
+		long negativeAmount = -10000;
 		assertThrows(NegativeAmountException.class, () -> {
-			currencyPair.exchange(negativeAmount);
+			currencyPair.exchange(negativeAmount, 9200000000L);
 		});
 	}
 
@@ -94,7 +121,77 @@ class FxApplicationTests {
 	@Test
 	public void exchangeTest() throws Exception {
 		CurrencyPair currencyPair = new CurrencyPair("USDEUR");
-		double exchangedAmount = currencyPair.exchange(100.0);
-		assertThat(exchangedAmount > 0.1);
+		long exchangedAmount = currencyPair.exchange(10000, liveRate(currencyPair).getRateUnits());
+		assertThat(exchangedAmount > 10);
+	}
+
+	/**
+	 * Tests that a second request for the same rate is served from the cache.
+	 * @throws Exception
+	 */
+	@Test
+	public void cachedExchangeRateTest() throws Exception {
+		CurrencyPair currencyPair = new CurrencyPair("USDEUR");
+		RateSnapshot first = liveRate(currencyPair);
+		RateSnapshot second = exchangeRateService.getRate(currencyPair);
+		assertThat(second).isSameAs(first);
+	}
+
+	/**
+	 * Tests that a conditional request for an unchanged rate gets 304 without a body.
+	 * @throws Exception
+	 */
+	@Test
+	public void conditionalExchangeRateTest() throws Exception {
+		RateSnapshot snapshot = new RateSnapshot("USDCHF", 0.92, System.currentTimeMillis());
+		exchangeRateService.install(snapshot);
+
+		mockMvc.perform(get("/exchangerate").param("currencyPair", "USDCHF"))
+			.andExpect(status().isOk())
+			.andExpect(header().string("ETag", snapshot.getETag()));
+		mockMvc.perform(get("/exchangerate").param("currencyPair", "USDCHF")
+				.header("If-None-Match", snapshot.getETag()))
+			.andExpect(status().isNotModified())
+			.andExpect(content().string(""));
+	}
+
+	/**
+	 * Tests that a response without a real rate is not cacheable.
+	 * @throws Exception
+	 */
+	@Test
+	public void unavailableExchangeRateIsNotCachedTest() throws Exception {
+		exchangeRateService.install(new RateSnapshot("USDSEK", 0.0, System.currentTimeMillis()));
+
+		mockMvc.perform(get("/exchangerate").param("currencyPair", "USDSEK"))
+			.andExpect(status().isOk())
+			.andExpect(header().string("Cache-Control", "no-store"))
+			.andExpect(header().doesNotExist("ETag"));
+	}
+
+	/**
+	 * Tests that an amount that is not a decimal number is rejected before the rate is read.
+	 * @throws Exception
+	 */
+	@Test
+	public void invalidAmountTest() throws Exception {
+		mockMvc.perform(get("/convert").param("amount", "1e5")
+				.param("sourceCurrency", "USD").param("targetCurrency", "EUR"))
+			.andExpect(status().isBadRequest());
+	}
+
+	/**
+	 * Tests that an old rate is not cacheable beyond the time the service itself stops serving it.
+	 * @throws Exception
+	 */
+	@Test
+	public void staleExchangeRateCacheControlTest() throws Exception {
+		long fiftyMinutes = 50 * 60 * 1000;
+		exchangeRateService.install(new RateSnapshot("USDNOK", 8.4, System.currentTimeMillis() - fiftyMinutes));
+
+		//max-stale-ms is an hour, so ten minutes are left.
+		mockMvc.perform(get("/exchangerate").param("currencyPair", "USDNOK"))
+			.andExpect(status().isOk())
+			.andExpect(header().string("Cache-Control", matchesPattern("max-age=0, public, stale-while-revalidate=(599|600)")));
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,77 @@
+package fx.fx;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import fx.fx.classes.Transaction;
+import fx.fx.repository.TransactionRepository;
+import fx.fx.services.TransactionJournal;
+
+@SpringBootTest(properties = {"fx.journal.enabled=true", "fx.journal.dir=target/journal-test", "fx.rates.snapshot-file="})
+class TransactionJournalTests {
+
+	@Autowired
+	private TransactionJournal transactionJournal;
+
+	@Autowired
+	private TransactionRepository transactionRepository;
+
+	/**
+	 * Tests that a journaled transaction is loaded into the repository by the replayer.
+	 */
+	@Test
+	public void journaledTransactionIsLoaded() {
+		Transaction transaction = new Transaction("USD", "EUR", 10000, 8285, "2021-04-20");
+		long sequence = transactionJournal.append(transaction);
+		assertThat(transaction.getJournalSequence()).isEqualTo(sequence);
+
+		transactionJournal.replay();
+		Page<Transaction> loaded = transactionRepository.findByjournalNodeAndJournalSequence(
+				transaction.getJournalNode(), sequence, PageRequest.of(0, 1));
+		assertThat(loaded.getContent()).hasSize(1);
+		assertThat(loaded.getContent().get(0).getExchangedAmountMinor()).isEqualTo(8285);
+	}
+
+	/**
+	 * Tests that a record the repository rejects is set aside instead of holding up the records after it.
+	 */
+	@Test
+	public void rejectedRecordIsSkipped() {
+		Transaction first = new Transaction("USD", "EUR", 100, 83, "2021-04-20");
+		long sequence = transactionJournal.append(first);
+		transactionJournal.replay();
+
+		//takes the key of the next record, as a duplicate would.
+		Transaction conflicting = new Transaction("USD", "EUR", 200, 166, "2021-04-20");
+		conflicting.setJournalNode(first.getJournalNode());
+		conflicting.setJournalSequence(sequence + 1);
+		transactionRepository.save(conflicting);
+
+		transactionJournal.append(new Transaction("USD", "EUR", 300, 249, "2021-04-20"));
+		transactionJournal.append(new Transaction("USD", "EUR", 400, 332, "2021-04-20"));
+		assertThat(transactionJournal.replay()).isEqualTo(1);
+		Page<Transaction> loaded = transactionRepository.findByjournalNodeAndJournalSequence(
+				first.getJournalNode(), sequence + 2, PageRequest.of(0, 1));
+		assertThat(loaded.getContent()).hasSize(1);
+		assertThat(loaded.getContent().get(0).getExchangedAmountMinor()).isEqualTo(332);
+	}
+
+	/**
+	 * Tests that a second journal can't open a directory that is already in use.
+	 */
+	@Test
+	public void journalDirectoryIsLocked() {
+		TransactionJournal second = new TransactionJournal();
+		ReflectionTestUtils.setField(second, "transactionRepository", transactionRepository);
+		ReflectionTestUtils.setField(second, "dir", "target/journal-test");
+		assertThrows(IllegalStateException.class, second::open);
+	}
+}
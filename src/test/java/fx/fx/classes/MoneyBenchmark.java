@@ -0,0 +1,74 @@
+package fx.fx.classes;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * MoneyBenchmark.java
+ *
+ * Compares the cost of an exchange using the fixed-point Money arithmetic, the previous boxed double arithmetic
+ * and BigDecimal. Not a unit test, run it after "./mvnw test-compile" with:
+ * java -cp target/classes:target/test-classes fx.fx.classes.MoneyBenchmark
+ */
+public class MoneyBenchmark {
+
+    private static final int AMOUNTS = 1024;
+    private static final int ROUNDS = 20;
+    private static final int ITERATIONS = 20000;
+
+    public static void main(String[] args) {
+        long[] amountsMinor = new long[AMOUNTS];
+        Double[] amountsBoxed = new Double[AMOUNTS];
+        BigDecimal[] amountsDecimal = new BigDecimal[AMOUNTS];
+        for (int i = 0; i < AMOUNTS; i++) {
+            amountsMinor[i] = 100 + i * 1237L;
+            amountsBoxed[i] = Money.toDouble(amountsMinor[i], 2);
+            amountsDecimal[i] = BigDecimal.valueOf(amountsMinor[i], 2);
+        }
+        double rate = 0.82845;
+        long rateUnits = Money.fromDouble(rate, Money.RATE_SCALE);
+        BigDecimal rateDecimal = BigDecimal.valueOf(rate);
+
+        //the sinks keep the JIT from removing the loops.
+        long fixedSink = 0;
+        double doubleSink = 0;
+        long decimalSink = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int n = 0; n < ITERATIONS; n++) {
+                for (int i = 0; i < AMOUNTS; i++) {
+                    fixedSink += Money.exchange(amountsMinor[i], 2, rateUnits, 2);
+                }
+            }
+            long fixed = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int n = 0; n < ITERATIONS; n++) {
+                for (int i = 0; i < AMOUNTS; i++) {
+                    doubleSink += exchangeBoxed(amountsBoxed[i], rate);
+                }
+            }
+            long boxed = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int n = 0; n < ITERATIONS; n++) {
+                for (int i = 0; i < AMOUNTS; i++) {
+                    decimalSink += amountsDecimal[i].multiply(rateDecimal).setScale(2, RoundingMode.HALF_EVEN)
+                                                    .unscaledValue().longValue();
+                }
+            }
+            long decimal = System.nanoTime() - start;
+
+            double calls = (double) ITERATIONS * AMOUNTS;
+            System.out.printf("round %2d: fixed-point %6.2f ns/op, boxed double %6.2f ns/op, BigDecimal %6.2f ns/op%n",
+                              round, fixed / calls, boxed / calls, decimal / calls);
+        }
+        System.out.println("sinks: " + fixedSink + " " + doubleSink + " " + decimalSink);
+    }
+
+    //the arithmetic of the previous CurrencyPair.exchange(Double).
+    private static double exchangeBoxed(Double amount, double exchangeRate) {
+        Double exchangedAmount = amount * exchangeRate;
+        return exchangedAmount;
+    }
+}
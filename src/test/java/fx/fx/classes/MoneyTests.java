@@ -0,0 +1,69 @@
+package fx.fx.classes;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MoneyTests {
+
+	/**
+	 * Tests that decimal amounts are rounded half-even to the currency's minor units.
+	 */
+	@Test
+	public void parseRoundsHalfEven() {
+		assertThat(Money.parse("10.125", 2)).isEqualTo(1012);
+		assertThat(Money.parse("10.135", 2)).isEqualTo(1014);
+		assertThat(Money.parse("10.1251", 2)).isEqualTo(1013);
+		assertThat(Money.parse("5", 2)).isEqualTo(500);
+		assertThat(Money.parse("-3.5", 0)).isEqualTo(-4);
+	}
+
+	/**
+	 * Tests that anything but a plain decimal number is rejected.
+	 */
+	@Test
+	public void parseRejectsInvalidAmounts() {
+		assertThrows(NumberFormatException.class, () -> Money.parse("", 2));
+		assertThrows(NumberFormatException.class, () -> Money.parse("1e5", 2));
+		assertThrows(NumberFormatException.class, () -> Money.parse("1.2.3", 2));
+		assertThrows(NumberFormatException.class, () -> Money.parse("99999999999999999999", 2));
+	}
+
+	/**
+	 * Tests the per-currency scales.
+	 */
+	@Test
+	public void scaleOfCurrencies() {
+		assertThat(Money.scaleOf("EUR")).isEqualTo(2);
+		assertThat(Money.scaleOf("jpy")).isEqualTo(0);
+		assertThat(Money.scaleOf("KWD")).isEqualTo(3);
+		assertThat(Money.scaleOf("AAA")).isEqualTo(2);
+	}
+
+	/**
+	 * Tests an exchange between currencies of different scales, rounded half-even.
+	 */
+	@Test
+	public void exchangeRescalesAndRounds() {
+		long rate = Money.parse("110.25", Money.RATE_SCALE);
+		//10.00 USD -> 1102.5 JPY -> 1102 JPY
+		assertThat(Money.exchange(1000, 2, rate, 0)).isEqualTo(1102);
+		//10.02 USD -> 1104.705 JPY -> 1105 JPY
+		assertThat(Money.exchange(1002, 2, rate, 0)).isEqualTo(1105);
+		//100.000 KWD at 3.25 -> 325.00 USD
+		assertThat(Money.exchange(100000, 3, Money.parse("3.25", Money.RATE_SCALE), 2)).isEqualTo(32500);
+	}
+
+	/**
+	 * Tests an exchange whose intermediate product does not fit in a long.
+	 */
+	@Test
+	public void exchangeOfLargeAmounts() {
+		//1,000,000,000.00 USD at 24000.5 VND
+		long rate = Money.parse("24000.5", Money.RATE_SCALE);
+		assertThat(Money.exchange(100000000000L, 2, rate, 0)).isEqualTo(24000500000000L);
+		assertThrows(ArithmeticException.class, () -> Money.exchange(Long.MAX_VALUE, 0, rate, 2));
+	}
+}
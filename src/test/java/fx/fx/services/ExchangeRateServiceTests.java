@@ -0,0 +1,100 @@
+package fx.fx.services;
+
+import java.nio.file.Path;
+import java.time.Clock;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import fx.fx.classes.CurrencyPair;
+import fx.fx.classes.RateSnapshot;
+import fx.fx.exceptions.CurrencyPairSyntaxException;
+import fx.fx.exceptions.RateUnavailableException;
+
+class ExchangeRateServiceTests {
+
+	private static ExchangeRateService service(Path snapshotFile) {
+		ExchangeRateService service = new ExchangeRateService();
+		ReflectionTestUtils.setField(service, "snapshotFile", snapshotFile.toString());
+		ReflectionTestUtils.setField(service, "refreshIntervalMs", 60000L);
+		ReflectionTestUtils.setField(service, "maxStaleMs", 3600000L);
+		//not clustered.
+		ReflectionTestUtils.setField(service, "clusterRateSync",
+									 new StaticListableBeanFactory().getBeanProvider(ClusterRateSync.class));
+		return service;
+	}
+
+	/**
+	 * Tests that the rates saved by one instance are served by the next one without calling the API.
+	 * @throws Exception
+	 */
+	@Test
+	public void snapshotIsReloaded(@TempDir Path dir) throws Exception {
+		Path snapshotFile = dir.resolve("rates-snapshot.json");
+		RateSnapshot saved = new RateSnapshot("USDEUR", 0.8285, System.currentTimeMillis());
+
+		ExchangeRateService first = service(snapshotFile);
+		first.install(saved);
+		first.saveSnapshot();
+
+		ExchangeRateService second = service(snapshotFile);
+		second.loadSnapshot();
+		RateSnapshot loaded = second.getRate(new CurrencyPair("USDEUR"));
+		assertThat(loaded.getRate()).isEqualTo(0.8285);
+		assertThat(loaded.getFetchedAt()).isEqualTo(saved.getFetchedAt());
+		assertThat(loaded.getETag()).isEqualTo(saved.getETag());
+	}
+
+	/**
+	 * Tests that bogus pairs are rejected without spending the budget more than once per refresh interval.
+	 * @throws Exception
+	 */
+	@Test
+	public void invalidPairIsRemembered(@TempDir Path dir) throws Exception {
+		AtomicInteger calls = new AtomicInteger();
+		ExchangeRateService service = service(dir.resolve("rates-snapshot.json"));
+		UpstreamBudget budget = new UpstreamBudget(1000, 10, 0.5, Clock.systemUTC());
+		long remaining = budget.getRemaining();
+		ReflectionTestUtils.setField(service, "upstreamBudget", budget);
+		ReflectionTestUtils.setField(service, "currencyLayerClient", new CurrencyLayerClient() {
+			@Override
+			double readRate(CurrencyPair currencyPair) throws CurrencyPairSyntaxException {
+				calls.incrementAndGet();
+				throw new CurrencyPairSyntaxException();
+			}
+		});
+
+		//not ISO 4217 codes: never sent to the API.
+		assertThrows(CurrencyPairSyntaxException.class, () -> service.getRate(new CurrencyPair("USDAAA")));
+		//valid codes the API rejects: sent once.
+		assertThrows(CurrencyPairSyntaxException.class, () -> service.getRate(new CurrencyPair("USDXXX")));
+		assertThrows(CurrencyPairSyntaxException.class, () -> service.getRate(new CurrencyPair("USDXXX")));
+		assertThat(calls.get()).isEqualTo(1);
+		assertThat(budget.getRemaining()).isEqualTo(remaining - 1);
+	}
+
+	/**
+	 * Tests that a missing rate the API can't provide is an error, not a rate of 0.
+	 * @throws Exception
+	 */
+	@Test
+	public void unreadableRateIsUnavailable(@TempDir Path dir) throws Exception {
+		ExchangeRateService service = service(dir.resolve("rates-snapshot.json"));
+		ReflectionTestUtils.setField(service, "upstreamBudget", new UpstreamBudget(1000, 10, 0.5, Clock.systemUTC()));
+		ReflectionTestUtils.setField(service, "currencyLayerClient", new CurrencyLayerClient() {
+			@Override
+			double readRate(CurrencyPair currencyPair) {
+				return 0.0;
+			}
+		});
+
+		assertThrows(RateUnavailableException.class, () -> service.getRate(new CurrencyPair("USDEUR")));
+	}
+}
@@ -0,0 +1,28 @@
+package fx.fx.services;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class UpstreamBudgetTests {
+
+	/**
+	 * Tests that low priority API calls leave the reserved part of the budget to high priority ones.
+	 */
+	@Test
+	public void upstreamBudgetTest() {
+		Clock clock = Clock.fixed(Instant.parse("2021-04-01T00:00:00Z"), ZoneOffset.UTC);
+		//a bucket of 2, half of it reserved.
+		UpstreamBudget budget = new UpstreamBudget(1000, 2, 0.5, clock);
+		assertThat(budget.tryAcquire(false)).isTrue();
+		assertThat(budget.tryAcquire(false)).isFalse();
+		assertThat(budget.isTight()).isTrue();
+		assertThat(budget.tryAcquire(true)).isTrue();
+		assertThat(budget.tryAcquire(true)).isFalse();
+		assertThat(budget.getRemaining()).isEqualTo(998);
+	}
+}